@@ -96,7 +96,7 @@ public class AndroidDevice extends Device implements SensorEventListener {
                 y = (double) (yraw - y0) / (double) (y1 - y0);
                 z = (double) (zraw - z0) / (double) (z1 - z0);
                 
-                this.fireAccelerationEvent(new double[] {x, y, z});
+                this.fireAccelerationSample(x, y, z, sevent.timestamp);
 //                Log.i(TAG, "accel ("+x +","+y +","+z);
         }
     }
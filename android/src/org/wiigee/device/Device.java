@@ -56,16 +56,29 @@ public class Device {
 
     // Listeners, receive generated events
     protected Vector<AccelerationListener> accelerationlistener = new Vector<AccelerationListener>();
+    protected Vector<AccelerationSampleListener> samplelistener = new Vector<AccelerationSampleListener>();
     protected Vector<ButtonListener> buttonlistener = new Vector<ButtonListener>();
 
     // Processing unit to analyze the data
     protected ProcessingUnit processingunit = new TriggeredProcessingUnit();
 
+    // Reused for every sample passing the filters
+    private double[] samplebuffer = new double[3];
+
+    // Survivors mask for blocks, grows with the largest block
+    private boolean[] blockmask = new boolean[0];
+
+    // Motion events raised while a block is filtered, in the order they
+    // have to be fired: index of the sample they belong to and type
+    private boolean filteringblock;
+    private int[] blockeventsample = new int[4];
+    private boolean[] blockeventstart = new boolean[4];
+    private int blockevents;
+
     public Device(boolean autofiltering) {
         if (autofiltering) {
-            this.addAccelerationFilter(new IdleStateFilter());
-            this.addAccelerationFilter(new MotionDetectFilter(this));
-            this.addAccelerationFilter(new DirectionalEquivalenceFilter());
+            // idle state, motion detect and directional equivalence in one
+            this.addAccelerationFilter(new FusedMotionFilter(this));
         }
         this.addAccelerationListener(this.processingunit);
         this.addButtonListener(this.processingunit);
@@ -92,12 +105,30 @@ public class Device {
     /**
      * Adds an AccelerationListener to the Device. Everytime an acceleration
      * on the Device is performed the AccelerationListener would receive
-     * an event of this action.
+     * an event of this action. If the listener is an
+     * AccelerationSampleListener too, it receives the primitive values
+     * instead, otherwise an AccelerationSampleAdapter creates the events.
      *
      * @param listener The Listener.
      */
     public void addAccelerationListener(AccelerationListener listener) {
         this.accelerationlistener.add(listener);
+        if (listener instanceof AccelerationSampleListener) {
+            this.samplelistener.add((AccelerationSampleListener) listener);
+        } else {
+            this.samplelistener.add(new AccelerationSampleAdapter(listener));
+        }
+    }
+
+    /**
+     * Adds a listener receiving every acceleration on the Device as
+     * primitive values, without any object created per sample. It
+     * doesn't receive motion events.
+     *
+     * @param listener The Listener.
+     */
+    public void addAccelerationSampleListener(AccelerationSampleListener listener) {
+        this.samplelistener.add(listener);
     }
 
     /**
@@ -168,25 +199,102 @@ public class Device {
      * acceleration on X, Y and Z axis.
      */
     public void fireAccelerationEvent(double[] vector) {
+        this.fireAccelerationSample(vector[0], vector[1], vector[2], System.nanoTime());
+    } // fireaccelerationevent
+
+    /** Fires an acceleration sample. The values pass the filters in
+     * place in a buffer reused for every sample, so nothing is allocated
+     * unless a filter or an adapted AccelerationListener does.
+     * @param x acceleration on X axis.
+     * @param y acceleration on Y axis.
+     * @param z acceleration on Z axis.
+     * @param timestamp time of the measurement in nanoseconds.
+     */
+    public void fireAccelerationSample(double x, double y, double z, long timestamp) {
+        double[] vector = this.samplebuffer;
+        vector[0] = x;
+        vector[1] = y;
+        vector[2] = z;
+        boolean valid = true;
         for (int i = 0; i < this.accfilters.size(); i++) {
-            vector = this.accfilters.get(i).filter(vector);
-            // cannot return here if null, because of time-dependent accfilters
+            Filter filter = this.accfilters.get(i);
+            // after a drop only time-dependent accfilters have to be called
+            if (valid || filter.needsDroppedSamples()) {
+                valid = filter.filterInPlace(vector, valid);
+            }
         }
 
-        // don't need to create an event if filtered away
-        if (vector != null) {
-            // 	calculate the absolute value for the accelerationevent
+        // don't need to notify anybody if filtered away
+        if (valid) {
+            // 	calculate the absolute value for the listeners
             double absvalue = Math.sqrt((vector[0] * vector[0]) +
                     (vector[1] * vector[1]) + (vector[2] * vector[2]));
 
-            AccelerationEvent w = new AccelerationEvent(this,
-                    vector[0], vector[1], vector[2], absvalue);
-            for (int i = 0; i < this.accelerationlistener.size(); i++) {
-                this.accelerationlistener.get(i).accelerationReceived(w);
+            for (int i = 0; i < this.samplelistener.size(); i++) {
+                this.samplelistener.get(i).accelerationSampleReceived(this,
+                        vector[0], vector[1], vector[2], absvalue, timestamp);
             }
         }
+    }
 
-    } // fireaccelerationevent
+    /** Fires a block of acceleration samples, e.g. a batch of the sensor
+     * or a part of a recorded session. Every filter processes the whole
+     * block before the next one, then the surviving samples are passed to
+     * the listeners in their order. Motion events of the filters are fired
+     * right before the sample they belong to, like for single samples.
+     * The values are filtered in place, so the block is changed by this
+     * call.
+     * @param xyz interleaved acceleration values: x, y, z of the first
+     * sample, x, y, z of the second sample and so on.
+     * @param timestamps time of every sample in nanoseconds, or null to
+     * use the time of the call for all samples.
+     * @param offset index of the first sample.
+     * @param count number of samples.
+     */
+    public void fireAccelerationBlock(float[] xyz, long[] timestamps, int offset, int count) {
+        int end = offset + count;
+        if (this.blockmask.length < end) {
+            this.blockmask = new boolean[end];
+        }
+        boolean[] valid = this.blockmask;
+        for (int i = offset; i < end; i++) {
+            valid[i] = true;
+        }
+        this.blockevents = 0;
+        this.filteringblock = true;
+        try {
+            for (int i = 0; i < this.accfilters.size(); i++) {
+                this.accfilters.get(i).filterBlock(xyz, timestamps, offset, count, valid);
+            }
+        } finally {
+            this.filteringblock = false;
+        }
+
+        long now = System.nanoTime();
+        int event = 0;
+        for (int i = offset; i < end; i++) {
+            while (event < this.blockevents && this.blockeventsample[event] <= i) {
+                if (this.blockeventstart[event]) {
+                    this.fireMotionStartEvent();
+                } else {
+                    this.fireMotionStopEvent();
+                }
+                event++;
+            }
+            if (valid[i]) {
+                int j = 3 * i;
+                double x = xyz[j];
+                double y = xyz[j + 1];
+                double z = xyz[j + 2];
+                double absvalue = Math.sqrt((x * x) + (y * y) + (z * z));
+                long timestamp = timestamps != null ? timestamps[i] : now;
+                for (int k = 0; k < this.samplelistener.size(); k++) {
+                    this.samplelistener.get(k).accelerationSampleReceived(this,
+                            x, y, z, absvalue, timestamp);
+                }
+            }
+        }
+    }
 
     /** Fires a button pressed event.
      * @param button
@@ -212,6 +320,59 @@ public class Device {
         }
     }
 
+    /**
+     * Fires a motion start event for a sample of a block. While the block
+     * is filtered the event is held back until the sample is passed to
+     * the listeners, otherwise it's fired immediately.
+     * @param sample index of the sample in the block.
+     */
+    public void fireMotionStartEvent(int sample) {
+        if (this.filteringblock) {
+            this.queueMotionEvent(sample, true);
+        } else {
+            this.fireMotionStartEvent();
+        }
+    }
+
+    /**
+     * Fires a motion stop event for a sample of a block, see
+     * fireMotionStartEvent(int).
+     * @param sample index of the sample in the block.
+     */
+    public void fireMotionStopEvent(int sample) {
+        if (this.filteringblock) {
+            this.queueMotionEvent(sample, false);
+        } else {
+            this.fireMotionStopEvent();
+        }
+    }
+
+    /**
+     * Holds back a motion event of a block. The events of one filter come
+     * in the order of the samples, but a later filter may add events for
+     * earlier samples. They are placed behind all events of the same
+     * sample, like the order of the filters for a single sample.
+     */
+    private void queueMotionEvent(int sample, boolean start) {
+        if (this.blockevents == this.blockeventsample.length) {
+            int[] samples = new int[2 * this.blockevents];
+            boolean[] starts = new boolean[2 * this.blockevents];
+            System.arraycopy(this.blockeventsample, 0, samples, 0, this.blockevents);
+            System.arraycopy(this.blockeventstart, 0, starts, 0, this.blockevents);
+            this.blockeventsample = samples;
+            this.blockeventstart = starts;
+        }
+        int k = this.blockevents;
+        while (k > 0 && this.blockeventsample[k - 1] > sample) {
+            this.blockeventsample[k] = this.blockeventsample[k - 1];
+            this.blockeventstart[k] = this.blockeventstart[k - 1];
+            k--;
+        }
+        this.blockeventsample[k] = sample;
+        this.blockeventstart[k] = start;
+        this.blockevents++;
+    }
+
     /**
      * Fires a motion start event.
      */
@@ -0,0 +1,46 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.event;
+
+import org.wiigee.device.Device;
+
+/**
+ * Forwards the primitive acceleration samples of a Device to an
+ * AccelerationListener as AccelerationEvents.
+ */
+public class AccelerationSampleAdapter implements AccelerationSampleListener {
+
+	private AccelerationListener listener;
+
+	public AccelerationSampleAdapter(AccelerationListener listener) {
+		this.listener = listener;
+	}
+
+	public void accelerationSampleReceived(Device source, double x, double y,
+			double z, double absvalue, long timestamp) {
+		this.listener.accelerationReceived(new AccelerationEvent(source, x, y, z, absvalue));
+	}
+
+	public AccelerationListener getListener() {
+		return this.listener;
+	}
+
+}
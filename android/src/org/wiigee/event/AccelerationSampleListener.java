@@ -0,0 +1,49 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.event;
+
+import java.util.EventListener;
+
+import org.wiigee.device.Device;
+
+/**
+ * This interface receives the acceleration data as primitive values
+ * instead of an AccelerationEvent, so no object has to be created for
+ * every sample. Used by the processing units; an AccelerationListener
+ * added to a Device gets the samples through an
+ * AccelerationSampleAdapter.
+ */
+public interface AccelerationSampleListener extends EventListener {
+
+	/**
+	 * This method would be called if a Device source has been accelerated.
+	 * 
+	 * @param source The device which has been accelerated.
+	 * @param x The value of acceleration in the x direction.
+	 * @param y The value of acceleration in the y direction.
+	 * @param z The value of acceleration in the z direction.
+	 * @param absvalue The absolute value of this acceleration vector.
+	 * @param timestamp The time of the measurement in nanoseconds.
+	 */
+	public abstract void accelerationSampleReceived(Device source, double x, double y,
+			double z, double absvalue, long timestamp);
+
+}
@@ -46,17 +46,59 @@ public class DirectionalEquivalenceFilter extends Filter {
 	}
 	
 	public double[] filterAlgorithm(double[] vector) {
+		return filterAlgorithmInPlace(vector) ? vector : null;
+	}
+	
+	public boolean filterInPlace(double[] vector, boolean valid) {
+		return valid && this.filterAlgorithmInPlace(vector);
+	}
+	
+	public boolean needsDroppedSamples() {
+		return false;
+	}
+	
+	public boolean filterAlgorithmInPlace(double[] vector) {
 		if(vector[0]<reference[0]-this.sensivity ||
 		   vector[0]>reference[0]+this.sensivity ||
 		   vector[1]<reference[1]-this.sensivity ||
 		   vector[1]>reference[1]+this.sensivity ||
 		   vector[2]<reference[2]-this.sensivity ||
 		   vector[2]>reference[2]+this.sensivity) {
-			this.reference=vector;
-			return vector;
+			// copy, the device reuses the array for the next sample
+			this.reference[0]=vector[0];
+			this.reference[1]=vector[1];
+			this.reference[2]=vector[2];
+			return true;
 		} else {
-			return null;
+			return false;
+		}
+	}
+	
+	public void filterBlock(float[] xyz, long[] timestamps, int offset, int count, boolean[] valid) {
+		double s = this.sensivity;
+		double rx = this.reference[0];
+		double ry = this.reference[1];
+		double rz = this.reference[2];
+		for(int i=offset, end=offset+count; i<end; i++) {
+			if(valid[i]) {
+				int j = 3*i;
+				double x = xyz[j];
+				double y = xyz[j+1];
+				double z = xyz[j+2];
+				if(x<rx-s || x>rx+s ||
+				   y<ry-s || y>ry+s ||
+				   z<rz-s || z>rz+s) {
+					rx=x;
+					ry=y;
+					rz=z;
+				} else {
+					valid[i]=false;
+				}
+			}
 		}
+		this.reference[0]=rx;
+		this.reference[1]=ry;
+		this.reference[2]=rz;
 	}
 	
 	public void setSensivity(double sensivity) {
@@ -26,10 +26,22 @@ package org.wiigee.filter;
 
 /**
  * Abstract class to give a definition for a general filter.
+ * A filter can be used in two ways: filter() returns the filtered
+ * vector or null, filterInPlace() changes the given vector and
+ * returns false if it's dropped. The Device uses the second way with
+ * one vector for all samples. By default filterInPlace() goes through
+ * filter(), so filters overriding filter() or filterAlgorithm() keep
+ * working; filters overriding filterInPlace() don't need to allocate
+ * anything.
+ * Whole blocks of samples, e.g. from a sensor batch or a recorded
+ * session, can be filtered at once with filterBlock().
  *
  * @author Benjamin 'BePo' Poppinga
  */
 public abstract class Filter {
+
+	/** Vector for passing single samples of a block to filterInPlace() */
+	private double[] blockvector;
 	
 	/***
 	 * The actual called method to filter anything. It checks if the vector is
@@ -57,6 +69,126 @@ public abstract class Filter {
 	 */
 	abstract public double[] filterAlgorithm(double[] vector);
 
+	/***
+	 * Filters a vector in place. This implementation passes the vector,
+	 * or null if it has been dropped, to filter() and copies the result
+	 * back, so it behaves exactly like filter(). Filters which don't
+	 * want to allocate override it, usually with
+	 * valid &amp;&amp; filterAlgorithmInPlace(vector).
+	 * @param vector The acceleration vector, encoding: 0/x, 1/y, 2/z,
+	 * overwritten with the filtered values
+	 * @param valid false, if the vector has been dropped by another filter
+	 * @return true, if the vector passes this filter
+	 */
+	public boolean filterInPlace(double[] vector, boolean valid) {
+		double[] result = this.filter(valid ? vector : null);
+		return copyResult(result, vector);
+	}
+
+	/***
+	 * Overwrites the vector with the filtered values. The default
+	 * implementation calls filterAlgorithm() and copies its result.
+	 * @param vector The acceleration vector, encoding: 0/x, 1/y, 2/z
+	 * @return true, if the vector passes this filter
+	 */
+	public boolean filterAlgorithmInPlace(double[] vector) {
+		return copyResult(filterAlgorithm(vector), vector);
+	}
+
+	private static boolean copyResult(double[] result, double[] vector) {
+		if(result==null) {
+			return false;
+		}
+		if(result!=vector) {
+			vector[0]=result[0];
+			vector[1]=result[1];
+			vector[2]=result[2];
+		}
+		return true;
+	}
+
+	/***
+	 * Tells if this filter has to see the vectors dropped by the filters
+	 * before, e.g. because it depends on time passing. Only such filters
+	 * are called for dropped vectors, the others are skipped. It's true
+	 * by default, since a filter overriding filter() may expect to be
+	 * called with null; filters which don't care return false.
+	 * @return true, if filterInPlace() must be called for dropped vectors
+	 */
+	public boolean needsDroppedSamples() {
+		return true;
+	}
+
+	/***
+	 * Filters a block of samples in place. The samples are interleaved:
+	 * xyz[3*i]=x, xyz[3*i+1]=y and xyz[3*i+2]=z of sample i. The mask
+	 * valid[i] tells if sample i passed the filters before and is cleared
+	 * if this filter drops it. The result is the same as passing the
+	 * samples one after another through filterInPlace(), which is what
+	 * this implementation does; the bundled filters override it with a
+	 * loop over the arrays.
+	 * @param xyz interleaved acceleration values, overwritten with the
+	 * filtered values
+	 * @param timestamps time of every sample in nanoseconds, may be null
+	 * @param offset index of the first sample
+	 * @param count number of samples
+	 * @param valid survivors mask, indexed like the samples
+	 */
+	public void filterBlock(float[] xyz, long[] timestamps, int offset, int count, boolean[] valid) {
+		if(this.blockvector==null) {
+			this.blockvector = new double[3];
+		}
+		double[] vector = this.blockvector;
+		for(int i=offset, end=offset+count; i<end; i++) {
+			int j = 3*i;
+			vector[0]=xyz[j];
+			vector[1]=xyz[j+1];
+			vector[2]=xyz[j+2];
+			valid[i] = this.filterInPlace(vector, valid[i]);
+			if(valid[i]) {
+				xyz[j]=(float)vector[0];
+				xyz[j+1]=(float)vector[1];
+				xyz[j+2]=(float)vector[2];
+			}
+		}
+	}
+
+	/***
+	 * Moves the samples of a block which passed the filters to its
+	 * beginning, keeping their order. Afterwards the first returned
+	 * number of samples are marked valid and the rest is marked dropped.
+	 * @param xyz interleaved acceleration values
+	 * @param timestamps time of every sample, moved the same way, may be null
+	 * @param offset index of the first sample
+	 * @param count number of samples
+	 * @param valid survivors mask, indexed like the samples
+	 * @return number of surviving samples
+	 */
+	public static int compact(float[] xyz, long[] timestamps, int offset, int count, boolean[] valid) {
+		int end = offset+count;
+		int k = offset;
+		for(int i=offset; i<end; i++) {
+			if(valid[i]) {
+				if(k!=i) {
+					int from = 3*i;
+					int to = 3*k;
+					xyz[to]=xyz[from];
+					xyz[to+1]=xyz[from+1];
+					xyz[to+2]=xyz[from+2];
+					if(timestamps!=null) {
+						timestamps[k]=timestamps[i];
+					}
+					valid[k]=true;
+				}
+				k++;
+			}
+		}
+		for(int i=k; i<end; i++) {
+			valid[i]=false;
+		}
+		return k-offset;
+	}
+
     abstract public void reset();
 	
 }
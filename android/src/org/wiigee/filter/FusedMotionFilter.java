@@ -0,0 +1,216 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package org.wiigee.filter;
+
+import org.wiigee.device.Device;
+
+/**
+ * The default filters of a device in one filter: IdleStateFilter,
+ * MotionDetectFilter and DirectionalEquivalenceFilter, in this order.
+ * It drops the same vectors and fires the same motion events as the
+ * three separate filters, but handles a sample with a single call and
+ * keeps the reference vector in fields instead of an array.
+ */
+public class FusedMotionFilter extends Filter {
+
+	// idle state
+	private double idlesensivity;
+
+	// motion detection
+	private int motionchangetime;
+	private boolean nowinmotion;
+	private long motionstartstamp;
+	private Device device;
+
+	// directional equivalence
+	private double equivalencesensivity;
+	private double refx;
+	private double refy;
+	private double refz;
+
+	/***
+	 * Creates the filter with the default values of the separate filters.
+	 *
+	 * @param device The device which receives the motion events.
+	 */
+	public FusedMotionFilter(Device device) {
+		super();
+		this.device=device;
+		this.idlesensivity=0.1;
+		this.reset();
+	}
+
+	/**
+	 * Resets everything the separate filters reset, including the
+	 * motion change time and the directional sensivity.
+	 */
+	public void reset() {
+		this.motionstartstamp=System.currentTimeMillis();
+		this.nowinmotion=false;
+		this.motionchangetime=190;
+		this.equivalencesensivity=0.2;
+		this.refx=0.0;
+		this.refy=0.0;
+		this.refz=0.0;
+	}
+
+    @Override
+	public double[] filter(double[] vector) {
+		return this.filterInPlace(vector, vector!=null) ? vector : null;
+	}
+
+	/**
+	 * Handles null like filter(), since the MotionDetectFilter does.
+	 */
+	public double[] filterAlgorithm(double[] vector) {
+		return this.filter(vector);
+	}
+
+	/**
+	 * Runs for dropped vectors too, like the MotionDetectFilter.
+	 */
+    @Override
+	public boolean needsDroppedSamples() {
+		return true;
+	}
+
+    @Override
+	public boolean filterInPlace(double[] vector, boolean valid) {
+		long now = System.currentTimeMillis();
+		if(!valid) {
+			// the vector may be null, only the time matters
+			this.checkMotionStop(now, -1);
+			return false;
+		}
+		return this.process(vector[0], vector[1], vector[2], true, now, -1);
+	}
+
+    @Override
+	public boolean filterAlgorithmInPlace(double[] vector) {
+		return this.filterInPlace(vector, true);
+	}
+
+	/**
+	 * Uses the timestamps as clock and hands the motion events to the
+	 * device with the index of their sample, like the MotionDetectFilter.
+	 */
+    @Override
+	public void filterBlock(float[] xyz, long[] timestamps, int offset, int count, boolean[] valid) {
+		long now = System.currentTimeMillis();
+		for(int i=offset, end=offset+count; i<end; i++) {
+			if(timestamps!=null) {
+				now = timestamps[i]/1000000L;
+			}
+			int j = 3*i;
+			valid[i] = this.process(xyz[j], xyz[j+1], xyz[j+2], valid[i], now, i);
+		}
+	}
+
+	/**
+	 * @param sample index of the sample in the block being filtered,
+	 * or -1 for a single sample
+	 */
+	private boolean process(double x, double y, double z, boolean valid, long now, int sample) {
+		// idle state
+		if(valid) {
+			double absvalue = Math.sqrt(x*x+y*y+z*z);
+			valid = absvalue > 1+this.idlesensivity ||
+				absvalue < 1-this.idlesensivity;
+		}
+
+		// motion stop, checked for dropped vectors too
+		this.checkMotionStop(now, sample);
+		if(!valid) {
+			return false;
+		}
+
+		// motion start
+		this.motionstartstamp=now;
+		if(!this.nowinmotion) {
+			this.nowinmotion=true;
+			if(sample<0) {
+				this.device.fireMotionStartEvent();
+			} else {
+				this.device.fireMotionStartEvent(sample);
+			}
+		}
+
+		// directional equivalence
+		double s = this.equivalencesensivity;
+		if(x<this.refx-s || x>this.refx+s ||
+		   y<this.refy-s || y>this.refy+s ||
+		   z<this.refz-s || z>this.refz+s) {
+			this.refx=x;
+			this.refy=y;
+			this.refz=z;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private void checkMotionStop(long now, int sample) {
+		if(this.nowinmotion &&
+				(now-this.motionstartstamp)>=this.motionchangetime) {
+			this.nowinmotion=false;
+			if(sample<0) {
+				this.device.fireMotionStopEvent();
+			} else {
+				this.device.fireMotionStopEvent(sample);
+			}
+		}
+	}
+
+	/**
+	 * @see IdleStateFilter#setSensivity(double)
+	 */
+	public void setIdleSensivity(double sensivity) {
+		this.idlesensivity=sensivity;
+	}
+
+	public double getIdleSensivity() {
+		return this.idlesensivity;
+	}
+
+	/**
+	 * @see MotionDetectFilter#setMotionChangeTime(int)
+	 */
+	public void setMotionChangeTime(int time) {
+		this.motionchangetime=time;
+	}
+
+	public int getMotionChangeTime() {
+		return this.motionchangetime;
+	}
+
+	/**
+	 * @see DirectionalEquivalenceFilter#setSensivity(double)
+	 */
+	public void setEquivalenceSensivity(double sensivity) {
+		this.equivalencesensivity=sensivity;
+	}
+
+	public double getEquivalenceSensivity() {
+		return this.equivalencesensivity;
+	}
+
+}
@@ -51,17 +51,44 @@ public class IdleStateFilter extends Filter {
 
     @Override
 	public double[] filterAlgorithm(double[] vector) {
+		return filterAlgorithmInPlace(vector) ? vector : null;
+	}
+
+    @Override
+	public boolean filterInPlace(double[] vector, boolean valid) {
+		return valid && this.filterAlgorithmInPlace(vector);
+	}
+
+    @Override
+	public boolean needsDroppedSamples() {
+		return false;
+	}
+
+    @Override
+	public boolean filterAlgorithmInPlace(double[] vector) {
 		// calculate values needed for filtering:
 		// absolute value
 		double absvalue = Math.sqrt((vector[0]*vector[0])+
 				(vector[1]*vector[1])+(vector[2]*vector[2]));
 		
 		// filter formulaes and return values
-		if(absvalue > 1+this.sensivity ||
-		   absvalue < 1-this.sensivity) {
-			return vector;
-		} else {
-			return null;	
+		return absvalue > 1+this.sensivity ||
+		   absvalue < 1-this.sensivity;
+	}
+
+    @Override
+	public void filterBlock(float[] xyz, long[] timestamps, int offset, int count, boolean[] valid) {
+		double upper = 1+this.sensivity;
+		double lower = 1-this.sensivity;
+		for(int i=offset, end=offset+count; i<end; i++) {
+			if(valid[i]) {
+				int j = 3*i;
+				double x = xyz[j];
+				double y = xyz[j+1];
+				double z = xyz[j+2];
+				double absvalue = Math.sqrt(x*x+y*y+z*z);
+				valid[i] = absvalue > upper || absvalue < lower;
+			}
 		}
 	}
 	
@@ -56,12 +56,58 @@ public class LowPassFilter extends Filter {
 
     @Override
     public double[] filterAlgorithm(double[] vector) {
-        double[] retVal = new double[3];
-        retVal[0] = vector[0] * this.factor + this.prevAcc[0] * (1.0 - this.factor);
-        retVal[1] = vector[1] * this.factor + this.prevAcc[1] * (1.0 - this.factor);
-        retVal[2] = vector[2] * this.factor + this.prevAcc[2] * (1.0 - this.factor);
-        this.prevAcc = retVal;
+        double[] retVal = new double[] {vector[0], vector[1], vector[2]};
+        this.filterAlgorithmInPlace(retVal);
         return retVal;
     }
 
+    @Override
+    public boolean filterInPlace(double[] vector, boolean valid) {
+        return valid && this.filterAlgorithmInPlace(vector);
+    }
+
+    @Override
+    public boolean needsDroppedSamples() {
+        return false;
+    }
+
+    @Override
+    public boolean filterAlgorithmInPlace(double[] vector) {
+        prevAcc[0] = vector[0] * this.factor + this.prevAcc[0] * (1.0 - this.factor);
+        prevAcc[1] = vector[1] * this.factor + this.prevAcc[1] * (1.0 - this.factor);
+        prevAcc[2] = vector[2] * this.factor + this.prevAcc[2] * (1.0 - this.factor);
+
+        vector[0] = prevAcc[0];
+        vector[1] = prevAcc[1];
+        vector[2] = prevAcc[2];
+
+        return true;
+    }
+
+    @Override
+    public void filterBlock(float[] xyz, long[] timestamps, int offset, int count, boolean[] valid) {
+        double f = this.factor;
+        double g = 1.0 - this.factor;
+        double px = this.prevAcc[0];
+        double py = this.prevAcc[1];
+        double pz = this.prevAcc[2];
+        for (int i = offset, end = offset + count; i < end; i++) {
+            if (valid[i]) {
+                int j = 3 * i;
+                double x = xyz[j];
+                double y = xyz[j + 1];
+                double z = xyz[j + 2];
+                px = x * f + px * g;
+                py = y * f + py * g;
+                pz = z * f + pz * g;
+                xyz[j] = (float) (px);
+                xyz[j + 1] = (float) (py);
+                xyz[j + 2] = (float) (pz);
+            }
+        }
+        this.prevAcc[0] = px;
+        this.prevAcc[1] = py;
+        this.prevAcc[2] = pz;
+    }
+
 }
@@ -61,26 +61,83 @@ public class MotionDetectFilter extends Filter {
 	
     @Override
 	public double[] filter(double[] vector) {
-		
+		this.checkMotionStop(System.currentTimeMillis(), -1);
+		return filterAlgorithm(vector);
+	}
+	
+	/**
+	 * Runs for dropped vectors too, since the motion stops if
+	 * no vector passes the filters before for a while.
+	 */
+    @Override
+	public boolean needsDroppedSamples() {
+		return true;
+	}
+
+    @Override
+	public boolean filterInPlace(double[] vector, boolean valid) {
+		long now = System.currentTimeMillis();
+		this.checkMotionStop(now, -1);
+		if(valid) {
+			this.checkMotionStart(now, -1);
+		}
+		return valid;
+	}
+	
+	/**
+	 * Uses the timestamps of the samples as clock if there are any, so
+	 * a recorded session is replayed with its original timing. Don't mix
+	 * such blocks with live samples without a reset() in between. The
+	 * motion events are handed to the device with the index of their
+	 * sample, so it fires them in between the samples of the block.
+	 */
+    @Override
+	public void filterBlock(float[] xyz, long[] timestamps, int offset, int count, boolean[] valid) {
+		long now = System.currentTimeMillis();
+		for(int i=offset, end=offset+count; i<end; i++) {
+			if(timestamps!=null) {
+				now = timestamps[i]/1000000L;
+			}
+			this.checkMotionStop(now, i);
+			if(valid[i]) {
+				this.checkMotionStart(now, i);
+			}
+		}
+	}
+	
+	/**
+	 * @param sample index of the sample in the block being filtered,
+	 * or -1 for a single sample
+	 */
+	private void checkMotionStop(long now, int sample) {
 		if(this.nowinmotion &&
-				(System.currentTimeMillis()-this.motionstartstamp)>=
+				(now-this.motionstartstamp)>=
 					this.motionchangetime) {
 			this.nowinmotion=false;
-			this.device.fireMotionStopEvent();
+			if(sample<0) {
+				this.device.fireMotionStopEvent();
+			} else {
+				this.device.fireMotionStopEvent(sample);
+			}
 		} // fi
-		
-		return filterAlgorithm(vector);
 	}
 	
-	public double[] filterAlgorithm(double[] vector) {
-		if(vector!=null) {
-			this.motionstartstamp=System.currentTimeMillis();
-			if(!this.nowinmotion) {
-				this.nowinmotion=true;
-				this.motionstartstamp=System.currentTimeMillis();
+	private void checkMotionStart(long now, int sample) {
+		this.motionstartstamp=now;
+		if(!this.nowinmotion) {
+			this.nowinmotion=true;
+			if(sample<0) {
 				this.device.fireMotionStartEvent();
+			} else {
+				this.device.fireMotionStartEvent(sample);
 			}
 		}
+	}
+	
+	public double[] filterAlgorithm(double[] vector) {
+		if(vector!=null) {
+			this.checkMotionStart(System.currentTimeMillis(), -1);
+		}
 		
 		return vector;
 	}
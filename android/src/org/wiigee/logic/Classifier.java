@@ -25,66 +25,168 @@
 package org.wiigee.logic;
 
 import java.util.Vector;
+import org.wiigee.util.LogMath;
 
 public class Classifier {
 
 	private Vector<GestureModel> gesturemodel; // each gesturetype got its own 
 										// gesturemodel in this vector
 	private double lastprob;
+	private double lastlogprob;
+	
+	// quantizer shared by the gesture models, null if each model
+	// has its own
+	private Quantizer codebook;
+	
+	// scores of the models for the current gesture, reused as long
+	// as the number of models doesn't change
+	private double[] loglikelihood;
 	
 	public Classifier() {
 		this.gesturemodel=new Vector<GestureModel>();
 		this.lastprob=0.0;
+		this.lastlogprob=Double.NEGATIVE_INFINITY;
+		this.loglikelihood=new double[0];
 	}
 	
 	/** 
 	 * This method recognize a specific gesture, given to the procedure.
 	 * For classification a bayes classification algorithm is used.
+	 * All probabilities are handled as log-probabilities, so gestures
+	 * too long for a linear probability aren't dropped. Each model
+	 * scores the gesture once, the bayes denominator and the most
+	 * probable model are both derived from these scores.
 	 * 
 	 * @param g	gesture to classify
 	 */
 	public int classifyGesture(Gesture g) {
 		//Log.write("Recognizing gesture...");
 		
+		int n = this.gesturemodel.size();
+		if(this.loglikelihood.length!=n) {
+			this.loglikelihood = new double[n];
+		}
+		double[] loglikelihood = this.loglikelihood;
+		
+		// a shared codebook quantizes the gesture once for all its models,
+		// into the symbol buffer of the workspace
+		boolean shared = this.codebook!=null && this.codebook.isTrained();
+		if(shared) {
+			int[] sequence = HMMWorkspace.get().symbols(
+					this.codebook.getSequenceLength(g));
+			int length = this.codebook.getObservationSequence(g, sequence);
+			for(int i=0; i<n; i++) {
+				GestureModel m = this.gesturemodel.elementAt(i);
+				if(m.getQuantizer()==this.codebook) {
+					loglikelihood[i] = m.matchesLog(sequence, length);
+				}
+			}
+		}
+		
+		// the other models quantize on their own afterwards, since they
+		// overwrite the symbol buffer
+		for(int i=0; i<n; i++) {
+			//this.gesturemodel.elementAt(i).print(); // Debug
+			GestureModel m = this.gesturemodel.elementAt(i);
+			if(!shared || m.getQuantizer()!=this.codebook) {
+				loglikelihood[i] = m.matchesLog(g);
+			}
+		}
+		return this.classifyLogLikelihoods(loglikelihood);
+	}
+	
+	/**
+	 * Recognizes a gesture which has already been scored by every
+	 * gesture model, e.g. while it was recorded. The same bayes
+	 * classification as in classifyGesture(Gesture) is used.
+	 * 
+	 * @param loglikelihood natural logarithm of the probability the
+	 * gesture got from each gesture model, in the order of the models
+	 * @return the id of the recognized gesture or -1
+	 */
+	public int classifyLogLikelihoods(double[] loglikelihood) {
 		// Wert im Nenner berechnen, nach Bayes
-		double sum = 0;
+		double sum = Double.NEGATIVE_INFINITY;
 		for(int i=0; i<this.gesturemodel.size(); i++) {
-			sum+=this.gesturemodel.elementAt(i).getDefaultProbability()*
-					this.gesturemodel.elementAt(i).matches(g);
+			sum=LogMath.add(sum, this.gesturemodel.elementAt(i).getDefaultLogProbability()+
+					loglikelihood[i]);
 		}
 		
 		int recognized = -1; // which gesture has been recognized
-		double recogprob = Integer.MIN_VALUE; // probability of this gesture
-		double probgesture = 0; // temporal value for bayes algorithm
-		double probmodel = 0; // temporal value for bayes algorithm
+		double recogprob = Double.NEGATIVE_INFINITY; // log probability of this gesture
+		double probgesture = Double.NEGATIVE_INFINITY; // temporal value for bayes algorithm
+		double probmodel = Double.NEGATIVE_INFINITY; // temporal value for bayes algorithm
 		for(int i=0; i<this.gesturemodel.size(); i++) {
-			//this.gesturemodel.elementAt(i).print(); // Debug
-			double tmpgesture = this.gesturemodel.elementAt(i).matches(g);
-			double tmpmodel = this.gesturemodel.elementAt(i).getDefaultProbability();
+			double tmpgesture = loglikelihood[i];
+			double tmpmodel = this.gesturemodel.elementAt(i).getDefaultLogProbability();
 			
-			if(((tmpmodel*tmpgesture)/sum)>recogprob) {
+			if((tmpmodel+tmpgesture-sum)>recogprob) {
 				probgesture=tmpgesture;
 				probmodel=tmpmodel;
-				recogprob=((tmpmodel*tmpgesture)/sum);
+				recogprob=(tmpmodel+tmpgesture-sum);
 				recognized=i;
 			}
 		}
 		
 		// a gesture could be recognized
-		if(recogprob>0 && probmodel>0 && probgesture>0 && sum>0) {
-			this.lastprob=recogprob;
+		if(recogprob>Double.NEGATIVE_INFINITY && probmodel>Double.NEGATIVE_INFINITY &&
+				probgesture>Double.NEGATIVE_INFINITY && sum>Double.NEGATIVE_INFINITY) {
+			this.lastprob=Math.exp(recogprob);
+			this.lastlogprob=recogprob;
 			return recognized;
 		} else {
 			// no gesture could be recognized
 			return -1;
 		}
-		
+	}
+	
+	/**
+	 * Returns the natural logarithm of the bayes probability
+	 * of the last recognized gesture.
+	 * 
+	 * @return log probability of the last recognition
+	 */
+	public double getLastLogProbability() {
+		return this.lastlogprob;
 	}
 	
 	public double getLastProbability() {
 		return this.lastprob;
 	}
 	
+	/**
+	 * Sets a quantizer shared by the gesture models of this classifier.
+	 * Models created with new GestureModel(codebook) use it, a gesture
+	 * is then quantized only once for all of them. It has to be trained
+	 * with trainSharedQuantizer() before these models are trained.
+	 * Models with their own quantizer are still supported.
+	 * 
+	 * @param codebook the shared quantizer, null for none
+	 */
+	public void setSharedQuantizer(Quantizer codebook) {
+		this.codebook = codebook;
+	}
+	
+	public Quantizer getSharedQuantizer() {
+		return this.codebook;
+	}
+	
+	/**
+	 * Trains the shared quantizer from the start with the training
+	 * gestures of all gesture classes together, so its symbols don't
+	 * depend on the order the classes are trained in. Models trained
+	 * with the codebook before have to be trained again afterwards.
+	 * 
+	 * @param gestures the training gestures of every class
+	 */
+	public void trainSharedQuantizer(Vector<Gesture> gestures) {
+		if(this.codebook==null) {
+			throw new IllegalStateException("There is no shared quantizer.");
+		}
+		this.codebook.reset();
+		this.codebook.trainCenteroids(gestures);
+	}
+	
 	public void addGestureModel(GestureModel gm) {
 		this.gesturemodel.add(gm);
 	}
@@ -0,0 +1,127 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.logic;
+
+/**
+ * The forward variables of a Hidden Markov Model for an observation
+ * sequence which isn't complete yet. Every symbol is processed when it
+ * arrives, so the probability of the sequence is available right after
+ * the last symbol. The variables are normalized in every step and the
+ * logarithms of the scaling sums are added up, so long sequences don't
+ * underflow.
+ */
+public class ForwardStream {
+
+	/** The model the forward variables belong to */
+	private HMM hmm;
+
+	/** Normalized forward variables of the current time step */
+	private double[] alpha;
+
+	/** Scratch buffers for the next time step and the padding */
+	private double[] next;
+	private double[] pad;
+	private double[] padnext;
+
+	/** Sum of the logarithms of the scaling sums */
+	private double loglikelihood;
+
+	/** Number of symbols processed and the last one of them */
+	private int length;
+	private int lastsymbol;
+
+	/**
+	 * Creates an empty stream for a model.
+	 *
+	 * @param hmm the model, mustn't be changed while the stream is used
+	 */
+	public ForwardStream(HMM hmm) {
+		this.hmm = hmm;
+		int n = hmm.numStates;
+		this.alpha = new double[n];
+		this.next = new double[n];
+		this.pad = new double[n];
+		this.padnext = new double[n];
+		this.reset();
+	}
+
+	/**
+	 * Forgets all processed symbols.
+	 */
+	public void reset() {
+		this.loglikelihood = 0.0;
+		this.length = 0;
+		this.lastsymbol = 0;
+	}
+
+	/**
+	 * Advances the forward variables by one observation.
+	 *
+	 * @param symbol the observed symbol
+	 */
+	public void add(int symbol) {
+		if(this.length==0) {
+			this.loglikelihood = this.hmm.forwardStart(symbol, this.alpha);
+		} else {
+			this.loglikelihood += this.hmm.forwardStep(this.alpha, this.next, symbol);
+			double[] swap = this.alpha;
+			this.alpha = this.next;
+			this.next = swap;
+		}
+		this.lastsymbol = symbol;
+		this.length++;
+	}
+
+	/**
+	 * Returns the log-probability of the processed symbols. Sequences
+	 * shorter than minLength are padded with the last symbol, like the
+	 * Quantizer does with short gestures. The stream itself isn't changed
+	 * by the padding, so more symbols can be added afterwards.
+	 *
+	 * @param minLength minimum length of the sequence
+	 * @return natural logarithm of the probability of the sequence
+	 */
+	public double getLogProbability(int minLength) {
+		if(this.length==0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		if(this.length>=minLength) {
+			return this.loglikelihood;
+		}
+		double ll = this.loglikelihood;
+		System.arraycopy(this.alpha, 0, this.pad, 0, this.alpha.length);
+		for(int t=this.length; t<minLength; t++) {
+			ll += this.hmm.forwardStep(this.pad, this.padnext, this.lastsymbol);
+			double[] swap = this.pad;
+			this.pad = this.padnext;
+			this.padnext = swap;
+		}
+		return ll;
+	}
+
+	public int getLength() {
+		return this.length;
+	}
+
+	public HMM getHMM() {
+		return this.hmm;
+	}
+}
@@ -25,33 +25,93 @@
 package org.wiigee.logic;
 
 import java.util.Vector;
+import org.wiigee.device.Device;
 import org.wiigee.event.AccelerationEvent;
 
 /**
  * This class represents ONE movement trajectory in a
- * concrete instance.
+ * concrete instance. The accelerations are stored in primitive
+ * arrays, one for every axis, instead of one event object per
+ * sample. The event based methods create the events on demand.
+ * The arrays are used as a ring buffer, so removing the first
+ * acceleration doesn't move the others.
  * 
  * @author Benjamin 'BePo' Poppinga
  */
 
 public class Gesture implements Cloneable {
 
+	/** Axis indices for the per-axis statistics */
+	public static final int X = 0;
+	public static final int Y = 1;
+	public static final int Z = 2;
+
 	/** Min/MaxAcceleration setup manually? */
 	private boolean minmaxmanual;
 	private double minacc;
 	private double maxacc;
 	
-	/** The complete trajectory as WiimoteAccelerationEvents
-	 * as a vector. It's a vector because we don't want to
-	 * loose the chronology of the stored events.
+	/** The complete trajectory as accelerations in x, y and z
+	 * direction and their absolute values, in chronological order.
+	 * The first acceleration is at index head, the following ones
+	 * wrap around at the end of the arrays.
 	 */
-	private Vector<AccelerationEvent> data;
+	private double[] x;
+	private double[] y;
+	private double[] z;
+	private double[] abs;
+	
+	/** The time of each acceleration, null until the first
+	 * acceleration with a timestamp has been added */
+	private long[] timestamp;
+	
+	/** The number of stored accelerations and the index of the first */
+	private int count;
+	private int head;
+	
+	/** The device the accelerations came from, used as the source
+	 * of the events created by getData() */
+	private Device source;
+	
+	/** Largest and smallest absolute acceleration of any axis, kept
+	 * up to date while accelerations are added */
+	private double maxabs;
+	private double minabs;
+	
+	/** Minimum, maximum and sum of the accelerations of each axis */
+	private double[] axismin;
+	private double[] axismax;
+	private double[] axissum;
+	
+	/** False, if an extreme value has been removed and the
+	 * statistics have to be recalculated before the next read */
+	private boolean statsvalid;
 
 	/**
 	 * Create an empty Gesture.
 	 */
 	public Gesture() {
-		this.data = new Vector<AccelerationEvent>();
+		this(32);
+	}
+
+	/**
+	 * Create an empty Gesture with room for a number of accelerations,
+	 * so it doesn't have to grow while they are added.
+	 * 
+	 * @param capacity initial number of accelerations
+	 */
+	public Gesture(int capacity) {
+		capacity = Math.max(1, capacity);
+		this.x = new double[capacity];
+		this.y = new double[capacity];
+		this.z = new double[capacity];
+		this.abs = new double[capacity];
+		this.count = 0;
+		this.head = 0;
+		this.axismin = new double[3];
+		this.axismax = new double[3];
+		this.axissum = new double[3];
+		this.resetStatistics();
 	}
 
 	/** 
@@ -60,11 +120,8 @@ public class Gesture implements Cloneable {
 	 * @param original Another Gesture object
 	 */
 	public Gesture(Gesture original) {
-		this.data = new Vector<AccelerationEvent>();
-		Vector<AccelerationEvent> origin = original.getData();
-		for (int i = 0; i < origin.size(); i++) {
-			this.add((AccelerationEvent) origin.get(i));
-		}
+		this(original.getCountOfData());
+		this.addAll(original);
 	}
 
 
@@ -74,7 +131,199 @@ public class Gesture implements Cloneable {
 	 * @param event The WiimoteAccelerationEvent to add.
 	 */
 	public void add(AccelerationEvent event) {
-		this.data.add(event);
+		if(this.source==null && event.getSource() instanceof Device) {
+			this.source = (Device)event.getSource();
+		}
+		this.add(event.getX(), event.getY(), event.getZ(), event.getAbsValue());
+	}
+
+	/**
+	 * Adds a new acceleration to this gesture.
+	 * 
+	 * @param x acceleration in x direction
+	 * @param y acceleration in y direction
+	 * @param z acceleration in z direction
+	 * @param abs absolute value of the acceleration vector
+	 */
+	public void add(double x, double y, double z, double abs) {
+		this.ensureCapacity(this.count+1);
+		int p = this.index(this.count);
+		this.x[p] = x;
+		this.y[p] = y;
+		this.z[p] = z;
+		this.abs[p] = abs;
+		if(this.timestamp!=null) {
+			this.timestamp[p] = 0;
+		}
+		this.count++;
+		if(this.statsvalid) {
+			this.include(x, y, z);
+		}
+	}
+
+	/**
+	 * Adds a new acceleration with the time it has been measured.
+	 * Accelerations added without a time get the timestamp 0.
+	 * 
+	 * @param x acceleration in x direction
+	 * @param y acceleration in y direction
+	 * @param z acceleration in z direction
+	 * @param abs absolute value of the acceleration vector
+	 * @param timestamp time of the measurement, e.g. in nanoseconds
+	 */
+	public void add(double x, double y, double z, double abs, long timestamp) {
+		if(this.timestamp==null) {
+			this.timestamp = new long[this.x.length];
+		}
+		this.add(x, y, z, abs);
+		this.timestamp[this.index(this.count-1)] = timestamp;
+	}
+
+	/**
+	 * Appends all accelerations of another gesture to this gesture.
+	 * 
+	 * @param other the gesture to append
+	 */
+	public void addAll(Gesture other) {
+		int n = other.count;
+		this.ensureCapacity(this.count+n);
+		if(other.timestamp!=null && this.timestamp==null) {
+			this.timestamp = new long[this.x.length];
+		}
+		for(int i=0; i<n; i++) {
+			int p = this.index(this.count+i);
+			int q = other.index(i);
+			this.x[p] = other.x[q];
+			this.y[p] = other.y[q];
+			this.z[p] = other.z[q];
+			this.abs[p] = other.abs[q];
+			if(this.timestamp!=null) {
+				this.timestamp[p] = other.timestamp!=null ? other.timestamp[q] : 0;
+			}
+		}
+		if(this.source==null) {
+			this.source = other.source;
+		}
+		this.count+=n;
+		if(this.statsvalid && n>0) {
+			other.validateStatistics();
+			this.maxabs = Math.max(this.maxabs, other.maxabs);
+			this.minabs = Math.min(this.minabs, other.minabs);
+			for(int a=0; a<3; a++) {
+				this.axismin[a] = Math.min(this.axismin[a], other.axismin[a]);
+				this.axismax[a] = Math.max(this.axismax[a], other.axismax[a]);
+				this.axissum[a]+=other.axissum[a];
+			}
+		}
+	}
+	
+	/**
+	 * Adds one acceleration to the statistics.
+	 */
+	private void include(double x, double y, double z) {
+		double ax = Math.abs(x);
+		double ay = Math.abs(y);
+		double az = Math.abs(z);
+		if(ax > this.maxabs) {
+			this.maxabs = ax;
+		}
+		if(ay > this.maxabs) {
+			this.maxabs = ay;
+		}
+		if(az > this.maxabs) {
+			this.maxabs = az;
+		}
+		if(ax < this.minabs) {
+			this.minabs = ax;
+		}
+		if(ay < this.minabs) {
+			this.minabs = ay;
+		}
+		if(az < this.minabs) {
+			this.minabs = az;
+		}
+		this.include(X, x);
+		this.include(Y, y);
+		this.include(Z, z);
+	}
+	
+	private void include(int axis, double value) {
+		if(value < this.axismin[axis]) {
+			this.axismin[axis] = value;
+		}
+		if(value > this.axismax[axis]) {
+			this.axismax[axis] = value;
+		}
+		this.axissum[axis]+=value;
+	}
+	
+	/**
+	 * Sets the statistics to the values of an empty gesture.
+	 */
+	private void resetStatistics() {
+		this.maxabs = Double.MIN_VALUE;
+		this.minabs = Double.MAX_VALUE;
+		for(int a=0; a<3; a++) {
+			this.axismin[a] = Double.POSITIVE_INFINITY;
+			this.axismax[a] = Double.NEGATIVE_INFINITY;
+			this.axissum[a] = 0;
+		}
+		this.statsvalid = true;
+	}
+	
+	/**
+	 * Recalculates the statistics from all stored accelerations, if
+	 * they aren't valid anymore.
+	 */
+	private void validateStatistics() {
+		if(this.statsvalid) {
+			return;
+		}
+		this.resetStatistics();
+		for(int i=0; i<this.count; i++) {
+			int p = this.index(i);
+			this.include(this.x[p], this.y[p], this.z[p]);
+		}
+	}
+
+	/**
+	 * Returns the array index of the i-th acceleration.
+	 */
+	private int index(int i) {
+		int p = this.head+i;
+		return p<this.x.length ? p : p-this.x.length;
+	}
+
+	/**
+	 * Grows the arrays, so they can hold at least the given
+	 * number of accelerations. The accelerations are moved to
+	 * the beginning of the new arrays.
+	 */
+	private void ensureCapacity(int capacity) {
+		if(capacity<=this.x.length) {
+			return;
+		}
+		int size = Math.max(capacity, this.x.length*2);
+		this.x = this.grow(this.x, size);
+		this.y = this.grow(this.y, size);
+		this.z = this.grow(this.z, size);
+		this.abs = this.grow(this.abs, size);
+		if(this.timestamp!=null) {
+			long[] t = new long[size];
+			int first = Math.min(this.count, this.timestamp.length-this.head);
+			System.arraycopy(this.timestamp, this.head, t, 0, first);
+			System.arraycopy(this.timestamp, 0, t, first, this.count-first);
+			this.timestamp = t;
+		}
+		this.head = 0;
+	}
+
+	private double[] grow(double[] values, int size) {
+		double[] out = new double[size];
+		int first = Math.min(this.count, values.length-this.head);
+		System.arraycopy(values, this.head, out, 0, first);
+		System.arraycopy(values, 0, out, first, this.count-first);
+		return out;
 	}
 
 	/**
@@ -83,28 +332,146 @@ public class Gesture implements Cloneable {
 	 * @return the last acceleration event added.
 	 */
 	public AccelerationEvent getLastData() {
-		return (AccelerationEvent) this.data.get(this.data.size() - 1);
+		return this.getEvent(this.count - 1);
 	}
 
 	/**
 	 * Returns the whole chronological sequence of accelerations as
-	 * a vector.
+	 * a vector. The events are created from the stored accelerations,
+	 * so changing the vector doesn't change this gesture.
 	 * 
 	 * @return chronological sequence of accelerations.
 	 */
 	public Vector<AccelerationEvent> getData() {
-		return this.data;
+		Vector<AccelerationEvent> data = new Vector<AccelerationEvent>(this.count);
+		for(int i=0; i<this.count; i++) {
+			data.add(this.getEvent(i));
+		}
+		return data;
+	}
+
+	/**
+	 * Creates the event of the i-th acceleration.
+	 */
+	private AccelerationEvent getEvent(int i) {
+		if(i<0 || i>=this.count) {
+			throw new ArrayIndexOutOfBoundsException(i);
+		}
+		if(this.source==null) {
+			throw new IllegalStateException("Gesture has no source device, use setSource().");
+		}
+		int p = this.index(i);
+		return new AccelerationEvent(this.source, this.x[p], this.y[p], this.z[p], this.abs[p]);
 	}
 	
 	/**
-	 * Removes the first element of the acceleration queue of a gesture
+	 * Removes the first element of the acceleration queue of a gesture.
+	 * Only the start of the ring buffer moves, so this takes constant time.
 	 */
 	public void removeFirstData() {
-		this.data.remove(0);
+		if(this.count==0) {
+			throw new ArrayIndexOutOfBoundsException(0);
+		}
+		int p = this.head;
+		if(this.statsvalid) {
+			// only the loss of an extreme value needs a new scan
+			double ax = Math.abs(this.x[p]);
+			double ay = Math.abs(this.y[p]);
+			double az = Math.abs(this.z[p]);
+			if(ax==this.maxabs || ay==this.maxabs || az==this.maxabs
+					|| ax==this.minabs || ay==this.minabs || az==this.minabs
+					|| this.isExtreme(X, this.x[p]) || this.isExtreme(Y, this.y[p])
+					|| this.isExtreme(Z, this.z[p])) {
+				this.statsvalid = false;
+			} else {
+				this.axissum[X]-=this.x[p];
+				this.axissum[Y]-=this.y[p];
+				this.axissum[Z]-=this.z[p];
+			}
+		}
+		this.count--;
+		this.head = this.count>0 ? this.index(1) : 0;
+	}
+	
+	private boolean isExtreme(int axis, double value) {
+		return value==this.axismin[axis] || value==this.axismax[axis];
 	}
 	
 	public int getCountOfData() {
-		return this.data.size();
+		return this.count;
+	}
+
+	/**
+	 * Returns the acceleration in x direction of the i-th sample.
+	 */
+	public double getX(int i) {
+		return this.x[this.index(i)];
+	}
+
+	/**
+	 * Returns the acceleration in y direction of the i-th sample.
+	 */
+	public double getY(int i) {
+		return this.y[this.index(i)];
+	}
+
+	/**
+	 * Returns the acceleration in z direction of the i-th sample.
+	 */
+	public double getZ(int i) {
+		return this.z[this.index(i)];
+	}
+
+	/**
+	 * Returns the absolute value of the acceleration of the i-th sample.
+	 */
+	public double getAbsValue(int i) {
+		return this.abs[this.index(i)];
+	}
+
+	/**
+	 * Returns the time the i-th sample has been measured, or 0 if
+	 * it has been added without a timestamp.
+	 */
+	public long getTimestamp(int i) {
+		return this.timestamp!=null ? this.timestamp[this.index(i)] : 0;
+	}
+
+	/**
+	 * True, if at least one sample has been added with a timestamp.
+	 */
+	public boolean hasTimestamps() {
+		return this.timestamp!=null;
+	}
+
+	/**
+	 * Copies the accelerations in x, y and z direction interleaved
+	 * into an array: target[offset+3*i] is the x value of the
+	 * i-th sample.
+	 * 
+	 * @param target the array, at least offset+3*getCountOfData() long
+	 * @param offset index of the first value in target
+	 */
+	public void getData(double[] target, int offset) {
+		for(int i=0; i<this.count; i++) {
+			int p = this.index(i);
+			target[offset++] = this.x[p];
+			target[offset++] = this.y[p];
+			target[offset++] = this.z[p];
+		}
+	}
+
+	public Device getSource() {
+		return this.source;
+	}
+
+	/**
+	 * Sets the device used as source of the events returned by
+	 * getData(), needed if the gesture has only been filled with
+	 * primitive values.
+	 */
+	public void setSource(Device source) {
+		this.source = source;
 	}
 	
 	public void setMaxAndMinAcceleration(double max, double min) {
@@ -113,43 +480,62 @@ public class Gesture implements Cloneable {
 		this.minmaxmanual = true;
 	}
 	
+	/**
+	 * Returns the largest absolute acceleration of any axis, or the
+	 * value set with setMaxAndMinAcceleration.
+	 */
 	public double getMaxAcceleration() {
 		if(!this.minmaxmanual) {
-		double maxacc = Double.MIN_VALUE;
-		for(int i=0; i<this.data.size(); i++) {
-			if(Math.abs(this.data.get(i).getX()) > maxacc) {
-				maxacc=Math.abs(this.data.get(i).getX());
-			}
-			if(Math.abs(this.data.get(i).getY()) > maxacc) {
-				maxacc=Math.abs(this.data.get(i).getY());
-			}
-			if(Math.abs(this.data.get(i).getZ()) > maxacc) {
-				maxacc=Math.abs(this.data.get(i).getZ());
-			}
-		}
-		return maxacc;
+			this.validateStatistics();
+			return this.maxabs;
 		} else {
 			return this.maxacc;
 		}
 	}
 	
+	/**
+	 * Returns the smallest absolute acceleration of any axis, or the
+	 * value set with setMaxAndMinAcceleration.
+	 */
 	public double getMinAcceleration() {
 		if(!this.minmaxmanual) {
-		double minacc = Double.MAX_VALUE;
-		for(int i=0; i<this.data.size(); i++) {
-			if(Math.abs(this.data.get(i).getX()) < minacc) {
-				minacc=Math.abs(this.data.get(i).getX());
-			}
-			if(Math.abs(this.data.get(i).getY()) < minacc) {
-				minacc=Math.abs(this.data.get(i).getY());
-			}
-			if(Math.abs(this.data.get(i).getZ()) < minacc) {
-				minacc=Math.abs(this.data.get(i).getZ());
-			}
-		}
-		return minacc;
+			this.validateStatistics();
+			return this.minabs;
 		} else {
 			return this.minacc;	
 		}
 	}
+	
+	/**
+	 * Returns the smallest acceleration in the direction of an axis.
+	 * 
+	 * @param axis X, Y or Z
+	 * @return the minimum, positive infinity for an empty gesture
+	 */
+	public double getMinimum(int axis) {
+		this.validateStatistics();
+		return this.axismin[axis];
+	}
+	
+	/**
+	 * Returns the largest acceleration in the direction of an axis.
+	 * 
+	 * @param axis X, Y or Z
+	 * @return the maximum, negative infinity for an empty gesture
+	 */
+	public double getMaximum(int axis) {
+		this.validateStatistics();
+		return this.axismax[axis];
+	}
+	
+	/**
+	 * Returns the mean acceleration in the direction of an axis.
+	 * 
+	 * @param axis X, Y or Z
+	 * @return the mean, NaN for an empty gesture
+	 */
+	public double getMean(int axis) {
+		this.validateStatistics();
+		return this.axissum[axis]/this.count;
+	}
 }
@@ -27,6 +27,7 @@ package org.wiigee.logic;
 import java.util.Vector;
 import org.wiigee.event.AccelerationEvent;
 import org.wiigee.util.Log;
+import org.wiigee.util.LogMath;
 
 /** 
  * This Class units a Quantizer-Component and an Model-Component.
@@ -45,6 +46,10 @@ public class GestureModel {
 	
 	/** The quantization component */
 	private Quantizer quantizer;
+
+	/** True, if the quantizer is a codebook shared with other models,
+	 * which is trained by the Classifier and never by this model */
+	private boolean sharedquantizer;
 	
 	/** The statistical model, hidden markov model */
 	private HMM markovmodell;
@@ -53,6 +58,31 @@ public class GestureModel {
 	 * needed for the bayes classifier */
 	private double defaultprobability;
 
+	/** The natural logarithm of the default probability */
+	private double defaultlogprobability;
+
+	/** True, if gestures are scored with the log domain forward
+	 * algorithm, which doesn't underflow for long gestures */
+	private boolean logscoring;
+
+	/** Maximum number of re-estimation steps of the hmm training */
+	private int trainingiterations;
+
+	/** Minimum log-likelihood gain per re-estimation step */
+	private double trainingepsilon;
+
+	/** Time budget for the hmm training in ms, 0 for no limit */
+	private long trainingbudget;
+
+	/** Likelihood and time of each step of the last training */
+	private TrainingReport trainingreport;
+
+	/** The number of gestures this model has been trained with */
+	private int trainingcount;
+
+	/** Trains the hmm with multiple threads, if not null */
+	private ParallelTrainer trainer;
+
 	
 	/** Creates a Unit (Quantizer&Model).
 	 * 
@@ -64,6 +94,25 @@ public class GestureModel {
 		this.numObservations=14; // k=14 observations empirical value
 		this.markovmodell = new HMM(numStates, numObservations); // init model
 		this.quantizer = new Quantizer(numStates); // init quantizer
+		this.trainingiterations = 1; // a single re-estimation step
+		this.trainingepsilon = 0.0;
+		this.trainingbudget = 0;
+		this.logscoring = false;
+		this.sharedquantizer = false;
+	}
+
+	/** Creates a Unit using a quantizer shared by all gesture models
+	 * of a vocabulary, so a gesture only has to be quantized once
+	 * for all of them. The codebook has to be trained with the gestures
+	 * of the whole vocabulary, see Classifier.trainSharedQuantizer(),
+	 * before this model is trained.
+	 * 
+	 * @param codebook the shared quantizer
+	 */
+	public GestureModel(Quantizer codebook) {
+		this();
+		this.quantizer = codebook;
+		this.sharedquantizer = true;
 	}
 
 	/**
@@ -71,35 +120,17 @@ public class GestureModel {
 	 * different evaluations of a gesture
 	 * 
 	 * @param trainsequence	a vector of gestures
+	 * @throws IllegalStateException if the model uses a shared
+	 * quantizer which hasn't been trained yet
 	 */
 	public void train(Vector<Gesture> trainsequence) {
-		// summarize all vectors from the different gestures in one
-		// gesture called sum.
-		double maxacc=0;
-		double minacc=0;
-		Gesture sum = new Gesture();
-		
-		for(int i=0; i<trainsequence.size(); i++) {
-			Vector<AccelerationEvent> t = trainsequence.elementAt(i).getData();
-
-			// add the max and min acceleration, we later get the average
-			maxacc+=trainsequence.elementAt(i).getMaxAcceleration();
-			minacc+=trainsequence.elementAt(i).getMinAcceleration();
-			
-			// transfer every single accelerationevent of each gesture to
-			// the new gesture sum
-			for(int j=0; j<trainsequence.elementAt(i).getData().size(); j++) {
-				sum.add(t.elementAt(j));
-			}
-			
+		if(!this.sharedquantizer) {
+			this.quantizer.trainCenteroids(trainsequence);
+		} else if(!this.quantizer.isTrained()) {
+			throw new IllegalStateException("The shared quantizer isn't trained, " +
+					"use Classifier.trainSharedQuantizer() first.");
 		}
 		
-		// get the average and set it to the sum gesture
-		sum.setMaxAndMinAcceleration(maxacc/trainsequence.size(), minacc/trainsequence.size());
-		
-		// train the centeroids of the quantizer with this master gesture sum.
-		this.quantizer.trainCenteroids(sum);
-		
 		// convert gesture vector to a sequence of discrete values
 		Vector<int[]> seqs = new Vector<int[]>();
 		for(int i=0; i<trainsequence.size(); i++) {
@@ -107,10 +138,56 @@ public class GestureModel {
 		}
 		
 		// train the markov model with this derived discrete sequences
-		this.markovmodell.train(seqs);
+		this.markovmodell.setTrainer(this.trainer);
+		this.trainingreport = this.markovmodell.train(seqs,
+				this.trainingiterations, this.trainingepsilon, this.trainingbudget);
 		
 		// set the default probability for use with the bayes classifier
 		this.setDefaultProbability(trainsequence);
+		this.trainingcount = trainsequence.size();
+	}
+	
+	/**
+	 * Folds one more training gesture into the already trained model,
+	 * without repeating the training with all gestures. The centeroid
+	 * sums of the quantizer and the expected counts of the hidden markov
+	 * model kept from the training are extended by this gesture, so the
+	 * cost only depends on its length. The default probability is
+	 * updated as a running average. A shared quantizer isn't changed,
+	 * since the other models depend on its symbols.
+	 * 
+	 * @param gesture the additional training gesture
+	 * @return false, if the model has no training statistics (e.g.
+	 * it has been loaded from a file), or if the gesture has the
+	 * probability 0 under this model, and it couldn't be updated
+	 */
+	public boolean update(Gesture gesture) {
+		if(this.trainingcount==0 || this.markovmodell.getStatistics()==null ||
+				(!this.sharedquantizer && !this.quantizer.isUpdatable())) {
+			Log.write("Model has no training statistics, it can't be updated.");
+			return false;
+		}
+		
+		if(!this.markovmodell.update(this.quantizer.getObservationSequence(gesture))) {
+			Log.write("Gesture doesn't match this model at all, it can't be updated.");
+			return false;
+		}
+		if(!this.sharedquantizer) {
+			this.quantizer.update(gesture);
+		}
+		
+		// running average of the default probability
+		int n = this.trainingcount;
+		if(this.logscoring) {
+			this.defaultlogprobability=LogMath.add(this.defaultlogprobability+Math.log(n),
+					this.matchesLog(gesture))-Math.log(n+1);
+			this.defaultprobability=Math.exp(this.defaultlogprobability);
+		} else {
+			this.defaultprobability=(this.defaultprobability*n+this.matches(gesture))/(n+1);
+			this.defaultlogprobability=Math.log(this.defaultprobability);
+		}
+		this.trainingcount++;
+		return true;
 	}
 
 	/** 
@@ -122,8 +199,91 @@ public class GestureModel {
 	 * model.
 	 */
 	public double matches(Gesture gesture) {
-		int[] sequence = quantizer.getObservationSequence(gesture);
-		return this.markovmodell.getProbability(sequence);
+		int[] sequence = HMMWorkspace.get().symbols(quantizer.getSequenceLength(gesture));
+		int length = quantizer.getObservationSequence(gesture, sequence);
+		return this.markovmodell.getProbability(sequence, length);
+	}
+
+	/** 
+	 * Returns the log-probability that a gesture matches to this
+	 * gesture model. Depending on the scoring mode this is either the
+	 * log domain forward algorithm or the logarithm of matches().
+	 * 
+	 * @param gesture a gesture to test.
+	 * @return natural logarithm of the probability that the gesture
+	 * belongs to this gesture model.
+	 */
+	public double matchesLog(Gesture gesture) {
+		int[] sequence = HMMWorkspace.get().symbols(quantizer.getSequenceLength(gesture));
+		int length = quantizer.getObservationSequence(gesture, sequence);
+		return this.matchesLog(sequence, length);
+	}
+
+	/** 
+	 * Returns the log-probability of a gesture which has already been
+	 * quantized by the quantizer of this model, e.g. by a shared
+	 * codebook.
+	 * 
+	 * @param sequence the symbols of the gesture
+	 * @param length the number of symbols in sequence
+	 * @return natural logarithm of the probability that the gesture
+	 * belongs to this gesture model.
+	 */
+	public double matchesLog(int[] sequence, int length) {
+		if(this.logscoring) {
+			return this.markovmodell.getLogProbability(sequence, length);
+		} else {
+			return Math.log(this.markovmodell.getProbability(sequence, length));
+		}
+	}
+
+	/**
+	 * Creates the forward variables to score a gesture with this model
+	 * while it's recorded. Feed every acceleration of the gesture to
+	 * the stream via stream(ForwardStream, AccelerationEvent) and get
+	 * the result from matchesLog(ForwardStream).
+	 * 
+	 * @return an empty stream for this model
+	 */
+	public ForwardStream createForwardStream() {
+		return new ForwardStream(this.markovmodell);
+	}
+	
+	/**
+	 * Quantizes a single acceleration and advances the forward
+	 * variables of the stream by this symbol.
+	 * 
+	 * @param stream a stream of this model
+	 * @param event the next acceleration of the gesture
+	 */
+	public void stream(ForwardStream stream, AccelerationEvent event) {
+		this.stream(stream, event.getX(), event.getY(), event.getZ());
+	}
+	
+	/**
+	 * Quantizes a single acceleration and advances the forward
+	 * variables of the stream by this symbol.
+	 * 
+	 * @param stream a stream of this model
+	 * @param x acceleration in x direction
+	 * @param y acceleration in y direction
+	 * @param z acceleration in z direction
+	 */
+	public void stream(ForwardStream stream, double x, double y, double z) {
+		stream.add(this.quantizer.getObservation(x, y, z));
+	}
+	
+	/**
+	 * Returns the log-probability that the gesture fed to the stream
+	 * matches to this gesture model. Short gestures are padded the
+	 * same way matchesLog(Gesture) does.
+	 * 
+	 * @param stream a stream of this model
+	 * @return natural logarithm of the probability that the gesture
+	 * belongs to this gesture model.
+	 */
+	public double matchesLog(ForwardStream stream) {
+		return stream.getLogProbability(this.numStates);
 	}
 
 	/**
@@ -145,6 +305,43 @@ public class GestureModel {
 		this.quantizer.printMap();
 	}
 	
+	/**
+	 * Defines how long the hidden markov model is trained. The
+	 * re-estimation is repeated until the log-likelihood of the training
+	 * gestures improves less than epsilon or one of the budgets is
+	 * exhausted. The default is a single re-estimation step.
+	 * 
+	 * @param maxIterations maximum number of re-estimation steps
+	 * @param epsilon minimum log-likelihood gain per step
+	 * @param maxMillis time budget in milliseconds, 0 for no limit
+	 */
+	public void setTrainingSchedule(int maxIterations, double epsilon, long maxMillis) {
+		this.trainingiterations = maxIterations;
+		this.trainingepsilon = epsilon;
+		this.trainingbudget = maxMillis;
+	}
+	
+	/**
+	 * Sets a trainer which calculates the statistics of the training
+	 * gestures in parallel. The same trainer can be used for all models
+	 * of a vocabulary. Null trains serially, which is the default.
+	 * 
+	 * @param trainer the parallel trainer or null
+	 */
+	public void setParallelTrainer(ParallelTrainer trainer) {
+		this.trainer = trainer;
+	}
+	
+	/**
+	 * Returns the likelihood and time of each re-estimation
+	 * step of the last training, or null if not trained yet.
+	 * 
+	 * @return the report of the last training
+	 */
+	public TrainingReport getTrainingReport() {
+		return this.trainingreport;
+	}
+	
 	public int getNumStates() {
 		return this.numStates;
 	}
@@ -173,18 +370,65 @@ public class GestureModel {
 	 * @param defsequence the vector of training sequences.
 	 */
 	private void setDefaultProbability(Vector<Gesture> defsequence) {
-		double prob=0;
-		for(int i=0; i<defsequence.size(); i++) {
-			prob+=this.matches(defsequence.elementAt(i));
+		if(this.logscoring) {
+			double[] logprob = new double[defsequence.size()];
+			for(int i=0; i<defsequence.size(); i++) {
+				logprob[i]=this.matchesLog(defsequence.elementAt(i));
+			}
+			
+			this.defaultlogprobability=LogMath.sum(logprob, logprob.length)-Math.log(defsequence.size());
+			this.defaultprobability=Math.exp(this.defaultlogprobability);
+		} else {
+			double prob=0;
+			for(int i=0; i<defsequence.size(); i++) {
+				prob+=this.matches(defsequence.elementAt(i));
+			}
+			
+			this.defaultprobability=(prob)/defsequence.size();
+			this.defaultlogprobability=Math.log(this.defaultprobability);
 		}
-		
-		this.defaultprobability=(prob)/defsequence.size();
 	}
 	
 	public void setDefaultProbability(double prob) {
 		this.defaultprobability = prob;
+		this.defaultlogprobability = Math.log(prob);
 		Log.write("def-prob. set to = "+this.defaultprobability);
 	}
+	
+	/** 
+	 * Returns the natural logarithm of the model probability for bayes.
+	 * Unlike getDefaultProbability() this doesn't underflow for models
+	 * trained with long gestures.
+	 * 
+	 * @return
+	 * 		the log model probability
+	 */
+	public double getDefaultLogProbability() {
+		return this.defaultlogprobability;
+	}
+	
+	public void setDefaultLogProbability(double logprob) {
+		this.defaultlogprobability = logprob;
+		this.defaultprobability = Math.exp(logprob);
+		Log.write("def-log-prob. set to = "+this.defaultlogprobability);
+	}
+	
+	/**
+	 * Selects how gestures are scored. In log scoring mode the forward
+	 * algorithm of the hidden markov model runs in the log domain, so
+	 * long gestures don't underflow to a probability of 0 and get
+	 * rejected by the classifier. Has to be set before training, since
+	 * the default probability is derived with the selected scoring.
+	 * 
+	 * @param logscoring true for log domain scoring
+	 */
+	public void setLogScoring(boolean logscoring) {
+		this.logscoring = logscoring;
+	}
+	
+	public boolean isLogScoring() {
+		return this.logscoring;
+	}
 
 	public Quantizer getQuantizer() {
 		return this.quantizer;
@@ -192,6 +436,15 @@ public class GestureModel {
 	
 	public void setQuantizer(Quantizer q) {
 		this.quantizer = q;
+		this.sharedquantizer = false;
+		this.trainingcount = 0;
+	}
+	
+	/**
+	 * True, if the quantizer is a codebook shared with other models.
+	 */
+	public boolean isSharedQuantizer() {
+		return this.sharedquantizer;
 	}
 	
 	public HMM getHMM() {
@@ -199,7 +452,8 @@ public class GestureModel {
 	}
 	
 	public void setHMM(HMM hmm) {
-		this.markovmodell = hmm;	
+		this.markovmodell = hmm;
+		this.trainingcount = 0;	
 	}
 	
 }
@@ -0,0 +1,87 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.logic;
+
+/**
+ * A gesture holding only the latest accelerations. Once the window
+ * is full every new acceleration replaces the oldest one, without
+ * moving the others or allocating anything. Feed it with the live
+ * accelerations of a device and hand it to the Classifier at any
+ * time for a continuous recognition.
+ */
+public class GestureWindow extends Gesture {
+
+	/** Maximum number of accelerations */
+	private int capacity;
+
+	/**
+	 * Creates an empty window.
+	 *
+	 * @param capacity maximum number of accelerations
+	 */
+	public GestureWindow(int capacity) {
+		super(capacity);
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Adds a new acceleration and removes the oldest one, if the
+	 * window is full.
+	 */
+	@Override
+	public void add(double x, double y, double z, double abs) {
+		if(this.getCountOfData()==this.capacity) {
+			this.removeFirstData();
+		}
+		super.add(x, y, z, abs);
+	}
+
+	/**
+	 * Adds the accelerations of another gesture one after another,
+	 * so only the latest ones are kept.
+	 */
+	@Override
+	public void addAll(Gesture other) {
+		if(this.getSource()==null) {
+			this.setSource(other.getSource());
+		}
+		for(int i=0; i<other.getCountOfData(); i++) {
+			if(other.hasTimestamps()) {
+				this.add(other.getX(i), other.getY(i), other.getZ(i),
+						other.getAbsValue(i), other.getTimestamp(i));
+			} else {
+				this.add(other.getX(i), other.getY(i), other.getZ(i),
+						other.getAbsValue(i));
+			}
+		}
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * True, if the next acceleration replaces the oldest one.
+	 */
+	public boolean isFull() {
+		return this.getCountOfData()==this.capacity;
+	}
+}
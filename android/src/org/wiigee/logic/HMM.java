@@ -26,6 +26,7 @@ package org.wiigee.logic;
 import java.text.DecimalFormat;
 import java.util.Vector;
 import org.wiigee.util.Log;
+import org.wiigee.util.LogMath;
 
 /**
  * This is a Hidden Markov Model implementation which internally provides
@@ -55,6 +56,32 @@ public class HMM {
 	/** The probability to emit symbol S in state A: b[stateA][symbolS] */
 	protected double b[][];
 
+	/** Flat copies of a and b the recursions work on, rebuilt by
+	 * refresh() whenever the model changes. aflat[stateA*numStates+stateB]
+	 * holds a row-major, at[stateB*numStates+stateA] column-major and
+	 * bt[symbolS*numStates+stateA] the emissions of one symbol. */
+	private double aflat[];
+	private double at[];
+	private double bt[];
+
+	/** Logarithms of pi, a and b for the log domain forward algorithm,
+	 * in the layout of pi, at and bt, rebuilt lazily after refresh() */
+	private double logpi[];
+	private double logat[];
+	private double logbt[];
+	private boolean logvalid;
+
+	/** The band of non-zero state change probabilities in a,
+	 * the recursions only iterate over this band */
+	protected TransitionBand band;
+
+	/** The expected counts the current a and b have been derived from,
+	 * null if the model hasn't been trained */
+	private HMMStatistics statistics;
+
+	/** Calculates the training statistics in parallel, if not null */
+	private ParallelTrainer trainer;
+
 	/**
 	 * Initialize the Hidden Markov Model in a left-to-right version.
 	 * 
@@ -68,6 +95,7 @@ public class HMM {
 		a = new double[numStates][numStates];
 		b = new double[numStates][numObservations];
 		this.reset();
+		this.refresh();
 	}
 	
 	/**
@@ -125,95 +153,246 @@ public class HMM {
 	 * 
 	 */
 	public void train(Vector<int[]> trainsequence) {
+		this.train(trainsequence, 1, 0.0, 0);
+	}
 
-		double[][] a_new = new double[a.length][a.length];
-		double[][] b_new = new double[b.length][b[0].length];
-		// re calculate state change probability a
-		for(int i=0; i<a.length; i++) {
-			for(int j=0; j<a[i].length; j++) {	
-				double zaehler=0;
-				double nenner=0;
-			
-				for(int k=0; k<trainsequence.size(); k++) {
-					int[] sequence = trainsequence.elementAt(k);
-					
-					double[][] fwd = this.forwardProc(sequence);
-					double[][] bwd = this.backwardProc(sequence);
-					double prob = this.getProbability(sequence);
-		
-					double zaehler_innersum=0;
-					double nenner_innersum=0;
-					
-					
-					for(int t=0; t<sequence.length-1; t++) {
-						zaehler_innersum+=fwd[i][t]*a[i][j]*b[j][sequence[t+1]]*bwd[j][t+1];
-						nenner_innersum+=fwd[i][t]*bwd[i][t];
-					}
-					zaehler+=(1/prob)*zaehler_innersum;
-					nenner+=(1/prob)*nenner_innersum;
-				} // k
-		
-				a_new[i][j] = zaehler/nenner;
-			} // j
-		} // i
-		
-		// re calculate emission probability b
-		for(int i=0; i<b.length; i++) { // zustaende
-			for(int j=0; j<b[i].length; j++) {	// symbole
-				double zaehler=0;
-				double nenner=0;
-			
-				for(int k=0; k<trainsequence.size(); k++) {
-					int[] sequence = trainsequence.elementAt(k);
-					
-					double[][] fwd = this.forwardProc(sequence);
-					double[][] bwd = this.backwardProc(sequence);
-					double prob = this.getProbability(sequence);
-		
-					double zaehler_innersum=0;
-					double nenner_innersum=0;
-					
-					
-					for(int t=0; t<sequence.length-1; t++) {
-						if(sequence[t]==j) {
-							zaehler_innersum+=fwd[i][t]*bwd[i][t];
-						}
-						nenner_innersum+=fwd[i][t]*bwd[i][t];
-					}
-					zaehler+=(1/prob)*zaehler_innersum;
-					nenner+=(1/prob)*nenner_innersum;
-				} // k
+	/**
+	 * Trains the Hidden Markov Model with multiple sequences in several
+	 * re-estimation steps. The training stops if the log-likelihood of
+	 * the training sequences improves less than epsilon, or if the
+	 * iteration or time budget is exhausted. If the last step decreased
+	 * the likelihood the model of the step before is kept.
+	 * 
+	 * @param trainsequence the training sequences
+	 * @param maxIterations maximum number of re-estimation steps
+	 * @param epsilon minimum gain of the log-likelihood per step
+	 * @param maxMillis time budget in milliseconds, 0 for no limit
+	 * @return the likelihood and time of every step
+	 */
+	public TrainingReport train(Vector<int[]> trainsequence, int maxIterations,
+			double epsilon, long maxMillis) {
+		TrainingReport report = new TrainingReport();
+		long begin = System.currentTimeMillis();
+		double lastll = Double.NEGATIVE_INFINITY;
+		double[][] lasta = this.a;
+		double[][] lastb = this.b;
+		HMMStatistics laststats = this.statistics;
 		
-				b_new[i][j] = zaehler/nenner;
-			} // j
-		} // i
+		while(report.getIterations()<maxIterations) {
+			if(maxMillis>0 && System.currentTimeMillis()-begin>=maxMillis) {
+				break;
+			}
+			long start = System.nanoTime();
+			HMMStatistics stats = this.collect(trainsequence);
+			double ll = stats.getLogLikelihood();
+			// written negated, so a NaN likelihood stops the training too
+			if(report.getIterations()>0 && !(ll-lastll>=epsilon)) {
+				if(!(ll>=lastll)) {
+					this.a=lasta;
+					this.b=lastb;
+					this.statistics=laststats;
+					this.refresh();
+				}
+				report.setConverged(true);
+				break;
+			}
+			lasta=this.a;
+			lastb=this.b;
+			laststats=this.statistics;
+			this.a=stats.getTransitionProbabilities();
+			this.b=stats.getEmissionProbabilities();
+			this.statistics=stats;
+			this.refresh();
+			report.addIteration(ll, (System.nanoTime()-start)/1000000.0);
+			lastll=ll;
+		}
+		return report;
+	}
+
+	/**
+	 * Adds one more training sequence to an already trained model.
+	 * The expected counts of the new sequence under the current model
+	 * are added to the counts kept from the training, and a and b are
+	 * derived from the sums again. This only processes the new sequence
+	 * instead of the whole training set.
+	 * 
+	 * @param sequence the additional observation sequence
+	 * @return false, if the model hasn't been trained and so there
+	 * are no counts to add to, or if the sequence has the probability 0
+	 * under the current model and so has no expected counts
+	 */
+	public boolean update(int[] sequence) {
+		if(this.statistics==null) {
+			return false;
+		}
+		HMMStatistics stats = new HMMStatistics(numStates, numObservations);
+		this.accumulate(sequence, stats);
+		if(!(stats.getLogLikelihood()>Double.NEGATIVE_INFINITY)) {
+			return false;
+		}
+		this.statistics.add(stats);
+		this.a=this.statistics.getTransitionProbabilities();
+		this.b=this.statistics.getEmissionProbabilities();
+		this.refresh();
+		return true;
+	}
 	
-		this.a=a_new;
-		this.b=b_new;
+	/**
+	 * Returns the expected counts the current model has been derived
+	 * from, or null if it hasn't been trained.
+	 * 
+	 * @return the training statistics
+	 */
+	public HMMStatistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * Calculates the expected counts of all training sequences
+	 * under the current model. If a parallel trainer is set, the
+	 * sequences are processed by its threads.
+	 * 
+	 * @param trainsequence the training sequences
+	 * @return the accumulated statistics
+	 */
+	protected HMMStatistics collect(Vector<int[]> trainsequence) {
+		if(this.trainer!=null && trainsequence.size()>1) {
+			return this.trainer.collect(this, trainsequence);
+		}
+		HMMStatistics stats = new HMMStatistics(numStates, numObservations);
+		for(int k=0; k<trainsequence.size(); k++) {
+			this.accumulate(trainsequence.elementAt(k), stats);
+		}
+		return stats;
+	}
+
+	/**
+	 * Adds the expected counts of one training sequence to the
+	 * statistics. The forward and backward variables and the
+	 * probability of the sequence are calculated only once here and
+	 * are shared by every state and symbol of the re-estimation.
+	 * 
+	 * @param sequence observation sequence
+	 * @param stats the statistics to add the counts to
+	 */
+	protected void accumulate(int[] sequence, HMMStatistics stats) {
+		int T = sequence.length;
+		int N = numStates;
+		HMMWorkspace ws = HMMWorkspace.get();
+		double[] fwd = ws.buffer(HMMWorkspace.ALPHA, T*N);
+		double[] bwd = ws.buffer(HMMWorkspace.BETA, T*N);
+		double[] symbolsum = ws.buffer(HMMWorkspace.ROW, numObservations);
+		this.forward(sequence, T, fwd);
+		this.backward(sequence, T, bwd);
+		double prob = 0.0;
+		for(int i=0; i<N; i++) {
+			prob += fwd[(T-1)*N + i];
+		}
+		double weight = 1/prob;
+		stats.addLogLikelihood(Math.log(prob));
+
+		double[][] transition = stats.getTransition();
+		double[] transitionSum = stats.getTransitionSum();
+		double[][] emission = stats.getEmission();
+		double[] emissionSum = stats.getEmissionSum();
+
+		for(int i=0; i<N; i++) {
+			// re calculate state change probability a, outside
+			// the band the count stays 0.
+			for(int j=band.rowStart[i]; j<band.rowEnd[i]; j++) {
+				double aij = aflat[i*N + j];
+				double zaehler_innersum=0;
+				for(int t=0; t<T-1; t++) {
+					zaehler_innersum+=fwd[t*N + i]*aij*bt[sequence[t+1]*N + j]*bwd[(t+1)*N + j];
+				}
+				transition[i][j]+=weight*zaehler_innersum;
+			}
+
+			// re calculate emission probability b, the denominator
+			// is the same for both of them.
+			double nenner_innersum=0;
+			for(int k=0; k<numObservations; k++) {
+				symbolsum[k]=0;
+			}
+			for(int t=0; t<T-1; t++) {
+				double gamma = fwd[t*N + i]*bwd[t*N + i];
+				symbolsum[sequence[t]]+=gamma;
+				nenner_innersum+=gamma;
+			}
+			for(int k=0; k<numObservations; k++) {
+				emission[i][k]+=weight*symbolsum[k];
+			}
+			transitionSum[i]+=weight*nenner_innersum;
+			emissionSum[i]+=weight*nenner_innersum;
+		}
 	}
 	
 	/**
-	 * Traditional Forward Algorithm.
+	 * Traditional Forward Algorithm on the flat model layout.
 	 * 
 	 * @param o the observationsequence O
-	 * @return Array[State][Time] 
-	 * 
+	 * @param T the number of observations of o to use
+	 * @param f receives the forward variables, f[time*numStates+state]
 	 */
-	protected double[][] forwardProc(int[] o) {
-		double[][] f = new double[numStates][o.length];
-		for (int l = 0; l < f.length; l++) {
-			f[l][0] = pi[l] * b[l][o[0]];
+	private void forward(int[] o, int T, double[] f) {
+		int N = numStates;
+		int off = o[0]*N;
+		for (int l = 0; l < N; l++) {
+			f[l] = pi[l] * bt[off + l];
 		}
-		for (int i = 1; i < o.length; i++) {
-			for (int k = 0; k < f.length; k++) {
+		for (int i = 1; i < T; i++) {
+			int prev = (i-1)*N;
+			int cur = i*N;
+			off = o[i]*N;
+			for (int k = 0; k < N; k++) {
 				double sum = 0;
-				for (int l = 0; l < numStates; l++) {
-					sum += f[l][i-1] * a[l][k];
+				int col = k*N;
+				for (int l = band.colStart[k]; l < band.colEnd[k]; l++) {
+					sum += f[prev + l] * at[col + l];
 				}
-				f[k][i] = sum * b[k][o[i]];
+				f[cur + k] = sum * bt[off + k];
 			}
 		}
-		return f;
+	}
+	
+	/**
+	 * Backward algorithm on the flat model layout.
+	 * 
+	 * @param o observation sequence o
+	 * @param T the number of observations of o to use
+	 * @param bwd receives the backward variables, bwd[time*numStates+state]
+	 */
+	private void backward(int[] o, int T, double[] bwd) {
+		int N = numStates;
+		/* Basisfall */
+		for (int i = 0; i < N; i++)
+			bwd[(T-1)*N + i] = 1;
+		/* Induktion */
+		for (int t = T - 2; t >= 0; t--) {
+			int cur = t*N;
+			int next = (t+1)*N;
+			int off = o[t+1]*N;
+			for (int i = 0; i < N; i++) {
+				double sum = 0;
+				int row = i*N;
+				for (int j = band.rowStart[i]; j < band.rowEnd[i]; j++)
+					sum += (bwd[next + j] * aflat[row + j] * bt[off + j]);
+				bwd[cur + i] = sum;
+			}
+		}
+	}
+	
+	/**
+	 * Traditional Forward Algorithm.
+	 * 
+	 * @param o the observationsequence O
+	 * @return Array[State][Time] 
+	 * 
+	 */
+	protected double[][] forwardProc(int[] o) {
+		double[] flat = new double[o.length*numStates];
+		this.forward(o, o.length, flat);
+		return this.unflatten(flat, o.length);
 	}
 	
 	/**
@@ -225,16 +404,210 @@ public class HMM {
 	 * @return probability that sequence o belongs to this hmm
 	 */
 	public double getProbability(int[] o) {
+		return this.getProbability(o, o.length);
+	}
+	
+	/**
+	 * Returns the probability of the first T symbols of an observation
+	 * sequence, so a reused buffer can be scored.
+	 * 
+	 * @param o observation sequence
+	 * @param T length of the sequence in o
+	 * @return probability that sequence o belongs to this hmm
+	 */
+	public double getProbability(int[] o, int T) {
+		int N = numStates;
+		HMMWorkspace ws = HMMWorkspace.get();
+		double[] f = ws.buffer(HMMWorkspace.ROW, N);
+		double[] next = ws.buffer(HMMWorkspace.NEXT, N);
+		int off = o[0]*N;
+		for (int l = 0; l < N; l++) {
+			f[l] = pi[l] * bt[off + l];
+		}
+		for (int i = 1; i < T; i++) {
+			off = o[i]*N;
+			for (int k = 0; k < N; k++) {
+				double sum = 0;
+				int col = k*N;
+				for (int l = band.colStart[k]; l < band.colEnd[k]; l++) {
+					sum += f[l] * at[col + l];
+				}
+				next[k] = sum * bt[off + k];
+			}
+			double[] swap = f;
+			f = next;
+			next = swap;
+		}
 		double prob = 0.0;
-		double[][] forward = this.forwardProc(o);
 		//	add probabilities
-		for (int i = 0; i < forward.length; i++) { // for every state
-			prob += forward[i][forward[i].length - 1];
+		for (int i = 0; i < N; i++) { // for every state
+			prob += f[i];
 		}
 		return prob;
 	}
 	
 
+	/**
+	 * Returns the log-probability that a observation sequence O belongs
+	 * to this Hidden Markov Model without using the bayes classifier.
+	 * The forward algorithm runs in the log domain using log-sum-exp,
+	 * so long sequences don't underflow to a probability of 0.
+	 * 
+	 * @param o observation sequence
+	 * @return natural logarithm of the probability that sequence o
+	 * belongs to this hmm
+	 */
+	public double getLogProbability(int[] o) {
+		return this.getLogProbability(o, o.length);
+	}
+	
+	/**
+	 * Returns the natural logarithm of the probability of the first T
+	 * symbols of an observation sequence, so a reused buffer can be
+	 * scored.
+	 * 
+	 * @param o observation sequence
+	 * @param T length of the sequence in o
+	 * @return log probability that sequence o belongs to this hmm
+	 */
+	public double getLogProbability(int[] o, int T) {
+		this.updateLogTables();
+		int N = numStates;
+		HMMWorkspace ws = HMMWorkspace.get();
+		double[] f = ws.buffer(HMMWorkspace.ROW, N);
+		double[] next = ws.buffer(HMMWorkspace.NEXT, N);
+		double[] terms = ws.buffer(HMMWorkspace.TERMS, N);
+		int off = o[0]*N;
+		for (int l = 0; l < N; l++) {
+			f[l] = logpi[l] + logbt[off + l];
+		}
+		for (int i = 1; i < T; i++) {
+			off = o[i]*N;
+			for (int k = 0; k < N; k++) {
+				int n = 0;
+				int col = k*N;
+				for (int l = band.colStart[k]; l < band.colEnd[k]; l++) {
+					terms[n++] = f[l] + logat[col + l];
+				}
+				next[k] = LogMath.sum(terms, n) + logbt[off + k];
+			}
+			double[] swap = f;
+			f = next;
+			next = swap;
+		}
+		return LogMath.sum(f, N);
+	}
+	
+	/**
+	 * First step of the scaled forward algorithm, used by ForwardStream.
+	 * The forward variables are normalized to a sum of 1.
+	 * 
+	 * @param o the first observation
+	 * @param f receives the normalized forward variables
+	 * @return natural logarithm of the scaling sum
+	 */
+	double forwardStart(int o, double[] f) {
+		int N = numStates;
+		int off = o*N;
+		double sum = 0;
+		for (int l = 0; l < N; l++) {
+			f[l] = pi[l] * bt[off + l];
+			sum += f[l];
+		}
+		if (sum > 0) {
+			for (int l = 0; l < N; l++) {
+				f[l] /= sum;
+			}
+		}
+		return Math.log(sum);
+	}
+	
+	/**
+	 * One induction step of the scaled forward algorithm, used by
+	 * ForwardStream. The forward variables are normalized to a sum of 1.
+	 * 
+	 * @param f the normalized forward variables of the last time step
+	 * @param next receives the normalized forward variables
+	 * @param o the next observation
+	 * @return natural logarithm of the scaling sum
+	 */
+	double forwardStep(double[] f, double[] next, int o) {
+		int N = numStates;
+		int off = o*N;
+		double total = 0;
+		for (int k = 0; k < N; k++) {
+			double sum = 0;
+			int col = k*N;
+			for (int l = band.colStart[k]; l < band.colEnd[k]; l++) {
+				sum += f[l] * at[col + l];
+			}
+			next[k] = sum * bt[off + k];
+			total += next[k];
+		}
+		if (total > 0) {
+			for (int k = 0; k < N; k++) {
+				next[k] /= total;
+			}
+		}
+		return Math.log(total);
+	}
+	
+	/**
+	 * Rebuilds the band and the flat copies of the model. Has to be
+	 * called every time pi, a or b have been replaced.
+	 */
+	private void refresh() {
+		int N = numStates;
+		int M = numObservations;
+		if(this.aflat==null || this.aflat.length!=N*N) {
+			this.aflat = new double[N*N];
+			this.at = new double[N*N];
+		}
+		if(this.bt==null || this.bt.length!=M*N) {
+			this.bt = new double[M*N];
+		}
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < N; j++) {
+				this.aflat[i*N + j] = a[i][j];
+				this.at[j*N + i] = a[i][j];
+			}
+			for (int k = 0; k < M; k++) {
+				this.bt[k*N + i] = b[i][k];
+			}
+		}
+		this.band = new TransitionBand(a);
+		this.logvalid = false;
+	}
+	
+	/**
+	 * Rebuilds the logarithms of pi, a and b if the model
+	 * has been changed since the last call.
+	 */
+	private void updateLogTables() {
+		if(this.logvalid) {
+			return;
+		}
+		if(this.logpi==null || this.logpi.length!=pi.length) {
+			this.logpi = new double[pi.length];
+		}
+		if(this.logat==null || this.logat.length!=at.length) {
+			this.logat = new double[at.length];
+		}
+		if(this.logbt==null || this.logbt.length!=bt.length) {
+			this.logbt = new double[bt.length];
+		}
+		for (int i = 0; i < pi.length; i++) {
+			this.logpi[i] = Math.log(pi[i]);
+		}
+		for (int i = 0; i < at.length; i++) {
+			this.logat[i] = Math.log(at[i]);
+		}
+		for (int i = 0; i < bt.length; i++) {
+			this.logbt[i] = Math.log(bt[i]);
+		}
+		this.logvalid = true;
+	}
+
 	/**
 	 * Backward algorithm.
 	 * 
@@ -242,24 +615,25 @@ public class HMM {
 	 * @return Array[State][Time]
 	 */
 	protected double[][] backwardProc(int[] o) {
-		int T = o.length;
-		double[][] bwd = new double[numStates][T];
-		/* Basisfall */
-		for (int i = 0; i < numStates; i++)
-			bwd[i][T - 1] = 1;
-		/* Induktion */
-		for (int t = T - 2; t >= 0; t--) {
+		double[] flat = new double[o.length*numStates];
+		this.backward(o, o.length, flat);
+		return this.unflatten(flat, o.length);
+	}
+
+	/**
+	 * Converts time-major forward or backward variables
+	 * to the Array[State][Time] layout.
+	 */
+	private double[][] unflatten(double[] flat, int T) {
+		double[][] out = new double[numStates][T];
+		for (int t = 0; t < T; t++) {
 			for (int i = 0; i < numStates; i++) {
-				bwd[i][t] = 0;
-				for (int j = 0; j < numStates; j++)
-					bwd[i][t] += (bwd[j][t + 1] * a[i][j] * b[j][o[t + 1]]);
+				out[i][t] = flat[t*numStates + i];
 			}
 		}
-		return bwd;
+		return out;
 	}
 
-	
-
 	/** 
 	 * Prints everything about this model, including
 	 * all values. For debug purposes or if you want
@@ -288,27 +662,60 @@ public class HMM {
 		}
 	}
 	
+	/**
+	 * Sets a trainer to calculate the statistics of the training
+	 * sequences in parallel. Null trains serially, which is the default.
+	 * 
+	 * @param trainer the parallel trainer or null
+	 */
+	public void setTrainer(ParallelTrainer trainer) {
+		this.trainer = trainer;
+	}
+	
+	public ParallelTrainer getTrainer() {
+		return this.trainer;
+	}
+	
 	public double[] getPi() {
 		return this.pi;
 	}
 	
 	public void setPi(double[] pi) {
 		this.pi = pi;
+		this.logvalid = false;
 	}
 
+	/**
+	 * Returns the state change probabilities. The recursions work on
+	 * a copy, so changes to the returned array only take effect after
+	 * passing it to setA().
+	 * 
+	 * @return Array[StateA][StateB]
+	 */
 	public double[][] getA() {
 		return this.a;
 	}
 	
 	public void setA(double[][] a) {
 		this.a = a;
+		this.statistics = null;
+		this.refresh();
 	}
 	
+	/**
+	 * Returns the emission probabilities. The recursions work on
+	 * a copy, so changes to the returned array only take effect after
+	 * passing it to setB().
+	 * 
+	 * @return Array[State][Symbol]
+	 */
 	public double[][] getB() {
 		return this.b;
 	}
 	
 	public void setB(double[][] b) {
 		this.b=b;
+		this.statistics = null;
+		this.refresh();
 	}
 }
@@ -0,0 +1,165 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.logic;
+
+/**
+ * Expected counts of a Hidden Markov Model, accumulated over one or
+ * more observation sequences. The forward and backward variables of a
+ * sequence are only needed to fill these counts, so every sequence is
+ * processed once per re-estimation and the new state change and emission
+ * probabilities are derived from the sums afterwards.
+ */
+public class HMMStatistics {
+
+	/** The number of states */
+	private int numStates;
+
+	/** The number of observations */
+	private int numObservations;
+
+	/** Expected state changes from state A to state B:
+	 * transition[stateA][stateB] */
+	private double[][] transition;
+
+	/** Expected visits of a state, used as the denominator
+	 * of the state change probabilities: transitionSum[state] */
+	private double[] transitionSum;
+
+	/** Expected emissions of symbol S in state A:
+	 * emission[stateA][symbolS] */
+	private double[][] emission;
+
+	/** Expected visits of a state, used as the denominator
+	 * of the emission probabilities: emissionSum[state] */
+	private double[] emissionSum;
+
+	/** Sum of the log-likelihoods of all accumulated sequences */
+	private double loglikelihood;
+
+	/**
+	 * Creates empty statistics for a model with the given size.
+	 *
+	 * @param numStates Number of states
+	 * @param numObservations Number of observations
+	 */
+	public HMMStatistics(int numStates, int numObservations) {
+		this.numStates = numStates;
+		this.numObservations = numObservations;
+		this.transition = new double[numStates][numStates];
+		this.transitionSum = new double[numStates];
+		this.emission = new double[numStates][numObservations];
+		this.emissionSum = new double[numStates];
+	}
+
+	/**
+	 * Adds the counts of another statistics object to this one.
+	 *
+	 * @param other statistics of the same model size
+	 */
+	public void add(HMMStatistics other) {
+		for(int i=0; i<this.numStates; i++) {
+			for(int j=0; j<this.numStates; j++) {
+				this.transition[i][j]+=other.transition[i][j];
+			}
+			for(int k=0; k<this.numObservations; k++) {
+				this.emission[i][k]+=other.emission[i][k];
+			}
+			this.transitionSum[i]+=other.transitionSum[i];
+			this.emissionSum[i]+=other.emissionSum[i];
+		}
+		this.loglikelihood+=other.loglikelihood;
+	}
+
+	/**
+	 * Adds the log-likelihood of one accumulated sequence.
+	 *
+	 * @param loglikelihood log of the probability of the sequence
+	 */
+	public void addLogLikelihood(double loglikelihood) {
+		this.loglikelihood+=loglikelihood;
+	}
+
+	/**
+	 * Returns the log-likelihood of all accumulated sequences under
+	 * the model the counts have been calculated with.
+	 *
+	 * @return sum of the log-likelihoods
+	 */
+	public double getLogLikelihood() {
+		return this.loglikelihood;
+	}
+
+	/**
+	 * Derives the re-estimated state change probabilities
+	 * from the accumulated counts.
+	 *
+	 * @return Array[StateA][StateB]
+	 */
+	public double[][] getTransitionProbabilities() {
+		double[][] a = new double[this.numStates][this.numStates];
+		for(int i=0; i<this.numStates; i++) {
+			for(int j=0; j<this.numStates; j++) {
+				a[i][j] = this.transition[i][j]/this.transitionSum[i];
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * Derives the re-estimated emission probabilities
+	 * from the accumulated counts.
+	 *
+	 * @return Array[State][Symbol]
+	 */
+	public double[][] getEmissionProbabilities() {
+		double[][] b = new double[this.numStates][this.numObservations];
+		for(int i=0; i<this.numStates; i++) {
+			for(int k=0; k<this.numObservations; k++) {
+				b[i][k] = this.emission[i][k]/this.emissionSum[i];
+			}
+		}
+		return b;
+	}
+
+	public int getNumStates() {
+		return this.numStates;
+	}
+
+	public int getNumObservations() {
+		return this.numObservations;
+	}
+
+	public double[][] getTransition() {
+		return this.transition;
+	}
+
+	public double[] getTransitionSum() {
+		return this.transitionSum;
+	}
+
+	public double[][] getEmission() {
+		return this.emission;
+	}
+
+	public double[] getEmissionSum() {
+		return this.emissionSum;
+	}
+}
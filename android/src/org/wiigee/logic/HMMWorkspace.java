@@ -0,0 +1,94 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.logic;
+
+/**
+ * Scratch buffers for the forward and backward algorithm. Each thread
+ * owns one workspace, which only grows if a longer sequence or a bigger
+ * model shows up, so scoring a gesture doesn't allocate any arrays.
+ * The forward and backward variables are stored time-major in flat
+ * arrays: alpha[time*numStates+state].
+ */
+class HMMWorkspace {
+
+	/** Buffer slots, a caller must not use the same slot twice */
+	static final int ALPHA = 0;
+	static final int BETA = 1;
+	static final int ROW = 2;
+	static final int NEXT = 3;
+	static final int TERMS = 4;
+
+	private static final ThreadLocal<HMMWorkspace> workspace =
+		new ThreadLocal<HMMWorkspace>() {
+			@Override
+			protected HMMWorkspace initialValue() {
+				return new HMMWorkspace();
+			}
+		};
+
+	private double[][] buffers;
+
+	/** Buffer for an observation sequence */
+	private int[] symbols;
+
+	private HMMWorkspace() {
+		this.buffers = new double[5][0];
+		this.symbols = new int[0];
+	}
+
+	/**
+	 * Returns the workspace of the calling thread.
+	 *
+	 * @return the workspace
+	 */
+	static HMMWorkspace get() {
+		return workspace.get();
+	}
+
+	/**
+	 * Returns the buffer of a slot with at least the given size.
+	 * The content of the buffer is undefined.
+	 *
+	 * @param slot one of the slot constants
+	 * @param size minimum number of values
+	 * @return the buffer
+	 */
+	double[] buffer(int slot, int size) {
+		if(this.buffers[slot].length<size) {
+			this.buffers[slot] = new double[size];
+		}
+		return this.buffers[slot];
+	}
+
+	/**
+	 * Returns a buffer for an observation sequence with at least
+	 * the given size. The content of the buffer is undefined.
+	 *
+	 * @param size minimum number of symbols
+	 * @return the buffer
+	 */
+	int[] symbols(int size) {
+		if(this.symbols.length<size) {
+			this.symbols = new int[size];
+		}
+		return this.symbols;
+	}
+}
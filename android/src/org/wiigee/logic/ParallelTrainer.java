@@ -0,0 +1,154 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.logic;
+
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Calculates the expected counts of the training sequences of a Hidden
+ * Markov Model in parallel. The counts of different sequences don't
+ * depend on each other, so the sequences are split up between the
+ * threads of a ForkJoinPool and the partial statistics are summed up
+ * afterwards. The sequences are always split the same way, so the
+ * result doesn't depend on the scheduling of the threads.
+ *
+ * One trainer can be shared by all models of a gesture vocabulary.
+ * Needs java.util.concurrent.ForkJoinPool, which is available from
+ * Java 7 and Android API level 21 on.
+ */
+public class ParallelTrainer {
+
+	/** The pool running the tasks */
+	private ForkJoinPool pool;
+
+	/** Number of sequences a task processes without splitting further */
+	private int threshold;
+
+	/**
+	 * Creates a trainer using every available processor.
+	 */
+	public ParallelTrainer() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a trainer with its own pool of the given size.
+	 *
+	 * @param parallelism number of threads
+	 */
+	public ParallelTrainer(int parallelism) {
+		this(new ForkJoinPool(parallelism));
+	}
+
+	/**
+	 * Creates a trainer running on an existing pool.
+	 *
+	 * @param pool the pool
+	 */
+	public ParallelTrainer(ForkJoinPool pool) {
+		this.pool = pool;
+		this.threshold = 1;
+	}
+
+	/**
+	 * Calculates the expected counts of all training sequences
+	 * under the current model of the hmm.
+	 *
+	 * @param hmm the model, mustn't be changed during the call
+	 * @param trainsequence the training sequences
+	 * @return the accumulated statistics
+	 */
+	HMMStatistics collect(HMM hmm, Vector<int[]> trainsequence) {
+		return this.pool.invoke(new StatisticsTask(hmm, trainsequence,
+				0, trainsequence.size(), this.threshold));
+	}
+
+	/**
+	 * Defines how many sequences a single task processes. Higher values
+	 * reduce the scheduling overhead for many short sequences.
+	 *
+	 * @param threshold number of sequences, at least 1
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = Math.max(1, threshold);
+	}
+
+	public int getThreshold() {
+		return this.threshold;
+	}
+
+	public int getParallelism() {
+		return this.pool.getParallelism();
+	}
+
+	/**
+	 * Stops the threads of the pool. The trainer can't be used anymore.
+	 */
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * Accumulates the statistics of the sequences [from, to).
+	 */
+	private static class StatisticsTask extends RecursiveTask<HMMStatistics> {
+
+		private static final long serialVersionUID = 1L;
+
+		private HMM hmm;
+		private Vector<int[]> trainsequence;
+		private int from;
+		private int to;
+		private int threshold;
+
+		StatisticsTask(HMM hmm, Vector<int[]> trainsequence, int from, int to, int threshold) {
+			this.hmm = hmm;
+			this.trainsequence = trainsequence;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected HMMStatistics compute() {
+			if(this.to-this.from<=this.threshold) {
+				HMMStatistics stats = new HMMStatistics(this.hmm.numStates,
+						this.hmm.numObservations);
+				for(int k=this.from; k<this.to; k++) {
+					this.hmm.accumulate(this.trainsequence.elementAt(k), stats);
+				}
+				return stats;
+			}
+			int middle = (this.from+this.to)>>>1;
+			StatisticsTask left = new StatisticsTask(this.hmm, this.trainsequence,
+					this.from, middle, this.threshold);
+			StatisticsTask right = new StatisticsTask(this.hmm, this.trainsequence,
+					middle, this.to, this.threshold);
+			left.fork();
+			HMMStatistics stats = right.compute();
+			HMMStatistics leftstats = left.join();
+			leftstats.add(stats);
+			return leftstats;
+		}
+	}
+}
@@ -56,6 +56,19 @@ public class PreciseHMM {
 	/** The probability to emit symbol S in state A: b[stateA][symbolS] */
 	public double b[][];
 
+	/** The band of non-zero state change probabilities in a, the
+	 * recursions only iterate over this band. Assign a new a only
+	 * with setA(), so the band is updated. */
+	private TransitionBand band;
+
+	/** Natural logarithms of pi, a and b for the viterbi algorithm.
+	 * Updated whenever the model is changed by train(), setA() or
+	 * setB(); call updateLogTables() after changing the public
+	 * arrays directly. */
+	private double logpi[];
+	private double loga[][];
+	private double logb[][];
+
 	/**
 	 * Initialize the Hidden Markov Model in a left-to-right version.
 	 * 
@@ -69,6 +82,8 @@ public class PreciseHMM {
 		a = new double[numStates][numStates];
 		b = new double[numStates][sigmaSize];
 		this.reset();
+		this.band = new TransitionBand(a);
+		this.updateLogTables();
 	}
 	
 	/**
@@ -125,163 +140,187 @@ public class PreciseHMM {
 	 * 
 	 */
 	public void train(Vector<int[]> trainsequence) {
+		this.train(trainsequence, 1, 0.0, 0);
+	}
 
-		double[][] a_new = new double[a.length][a.length];
-		double[][] b_new = new double[b.length][b[0].length];
-		// re calculate state change probability a
-		for(int i=0; i<a.length; i++) {
-			for(int j=0; j<a[i].length; j++) {	
-				double zaehler=0;
-				double nenner=0;
-			
-				for(int k=0; k<trainsequence.size(); k++) {
-					//this.reset();
-					int[] sequence = trainsequence.elementAt(k);
-					
-					double[] sf = this.calculateScalingFactor(sequence);
-					double[][] fwd = this.scaledForwardProc(sequence);
-					double[][] bwd = this.scaledBackwardProc(sequence, sf);
+	/**
+	 * Trains the Hidden Markov Model with multiple sequences in several
+	 * re-estimation steps. The training stops if the log-likelihood of
+	 * the training sequences improves less than epsilon, or if the
+	 * iteration or time budget is exhausted. If the last step decreased
+	 * the likelihood the model of the step before is kept.
+	 * 
+	 * @param trainsequence the training sequences
+	 * @param maxIterations maximum number of re-estimation steps
+	 * @param epsilon minimum gain of the log-likelihood per step
+	 * @param maxMillis time budget in milliseconds, 0 for no limit
+	 * @return the likelihood and time of every step
+	 */
+	public TrainingReport train(Vector<int[]> trainsequence, int maxIterations,
+			double epsilon, long maxMillis) {
+		TrainingReport report = new TrainingReport();
+		long begin = System.currentTimeMillis();
+		double lastll = Double.NEGATIVE_INFINITY;
+		double[][] lasta = this.a;
+		double[][] lastb = this.b;
 		
-					double zaehler_innersum=0;
-					double nenner_innersum=0;
-					
-					for(int t=0; t<sequence.length-1; t++) {
-						zaehler_innersum+=fwd[i][t]*a[i][j]*b[j][sequence[t+1]]*bwd[j][t+1]*sf[t+1];
-						nenner_innersum+=fwd[i][t]*bwd[i][t];
-					}
-					zaehler+=zaehler_innersum;
-					nenner+=nenner_innersum;
-				} // k
-				
-				a_new[i][j] = zaehler/nenner;
-			} // j
-		} // i			
+		while(report.getIterations()<maxIterations) {
+			if(maxMillis>0 && System.currentTimeMillis()-begin>=maxMillis) {
+				break;
+			}
+			long start = System.nanoTime();
+			HMMStatistics stats = new HMMStatistics(numStates, sigmaSize);
+			for(int k=0; k<trainsequence.size(); k++) {
+				this.accumulate(trainsequence.elementAt(k), stats);
+			}
+			double ll = stats.getLogLikelihood();
+			// written negated, so a NaN likelihood stops the training too
+			if(report.getIterations()>0 && !(ll-lastll>=epsilon)) {
+				if(!(ll>=lastll)) {
+					this.a=lasta;
+					this.b=lastb;
+				}
+				report.setConverged(true);
+				break;
+			}
+			lasta=this.a;
+			lastb=this.b;
+			this.a=stats.getTransitionProbabilities();
+			this.b=stats.getEmissionProbabilities();
+			report.addIteration(ll, (System.nanoTime()-start)/1000000.0);
+			lastll=ll;
+		}
+		this.band=new TransitionBand(this.a);
+		this.updateLogTables();
+		return report;
+	}
+
+	/**
+	 * Adds the expected counts of one training sequence to the
+	 * statistics. The scaling factors and the scaled forward and
+	 * backward variables are calculated once per sequence.
+	 * 
+	 * @param sequence observation sequence
+	 * @param stats the statistics to add the counts to
+	 */
+	private void accumulate(int[] sequence, HMMStatistics stats) {
+		double[] sf = new double[sequence.length];
+		double[][] fwd = this.scaledForwardProc(sequence, sf);
+		double[][] bwd = this.scaledBackwardProc(sequence, sf);
 		
-		// re calculate emission probability b
-		for(int i=0; i<b.length; i++) { // zustaende
-			for(int j=0; j<b[i].length; j++) {	// symbole
-				double zaehler=0;
-				double nenner=0;
+		// the probability of the sequence is the product of the
+		// inverted scaling factors.
+		double ll = 0;
+		for(int t=0; t<sequence.length; t++) {
+			ll-=Math.log(sf[t]);
+		}
+		stats.addLogLikelihood(ll);
+
+		double[][] transition = stats.getTransition();
+		double[] transitionSum = stats.getTransitionSum();
+		double[][] emission = stats.getEmission();
+		double[] emissionSum = stats.getEmissionSum();
+
+		for(int i=0; i<numStates; i++) {
+			// re calculate state change probability a, outside
+			// the band the count stays 0.
+			for(int j=band.rowStart[i]; j<band.rowEnd[i]; j++) {
+				double zaehler_innersum=0;
+				for(int t=0; t<sequence.length-1; t++) {
+					zaehler_innersum+=fwd[i][t]*a[i][j]*b[j][sequence[t+1]]*bwd[j][t+1]*sf[t+1];
+				}
+				transition[i][j]+=zaehler_innersum;
+			}
 			
-				for(int k=0; k<trainsequence.size(); k++) {
-					//this.reset();
-					int[] sequence = trainsequence.elementAt(k);
-					
-					double[] sf = this.calculateScalingFactor(sequence);
-					double[][] fwd = this.scaledForwardProc(sequence);
-					double[][] bwd = this.scaledBackwardProc(sequence, sf);
-		
-					double zaehler_innersum=0;
-					double nenner_innersum=0;
-					
-					for(int t=0; t<sequence.length-1; t++) {
-						if(sequence[t]==j) {
-							zaehler_innersum+=fwd[i][t]*bwd[i][t]*sf[t];
-						}
-						nenner_innersum+=fwd[i][t]*bwd[i][t]*sf[t];
-					}
-					zaehler+=zaehler_innersum;
-					nenner+=nenner_innersum;
-				} // k
-		
-				b_new[i][j] = zaehler/nenner;
-			} // j
-		} // i	
-		
-		this.a=a_new;
-		this.b=b_new;
+			// re calculate emission probability b, the scaled forward
+			// and backward variables multiply to the state probability.
+			double nenner_innersum=0;
+			for(int t=0; t<sequence.length-1; t++) {
+				double gamma = fwd[i][t]*bwd[i][t];
+				nenner_innersum+=gamma;
+				emission[i][sequence[t]]+=gamma;
+			}
+			transitionSum[i]+=nenner_innersum;
+			emissionSum[i]+=nenner_innersum;
+		}
 	}
 	
 	
-	private double[] calculateScalingFactor(int[] sequence) {
-		// for all indexing: [state][time]
-		double[][] fwd = this.forwardProc(sequence); // normal
-		double[][] help = new double[fwd.length][fwd[0].length];
-		double[][] scaled = new double[fwd.length][fwd[0].length];
-		double[] sf = new double[sequence.length];
+	/**
+	 * Returns the scaled Forward variable. The forward variables of
+	 * every time step are normalized to a sum of 1 right after they
+	 * are calculated, so they never underflow. The inverted sums are
+	 * the scaling factors, their product is the inverted probability
+	 * of the sequence.
+	 * 
+	 * @param sequence observation sequence
+	 * @param sf receives the scaling factor of every time step
+	 * @return Array[State][Time]
+	 */
+	private double[][] scaledForwardProc(int[] sequence, double[] sf) {
+		int T = sequence.length;
+		double[][] fwd = new double[numStates][T];
 		
-		// ************** BASIS *************
 		// Basis, fixed t=0
-		// setup, because needed for further calculations
-		for(int i=0; i<help.length; i++) {
-			help[i][0] = fwd[i][0];
-		}
-		
-		// setup initial scaled array
-		double sum0 = 0;
-		for(int i=0; i<help.length; i++) {
-			sum0+=help[i][0];
+		double sum = 0;
+		for(int i=0; i<numStates; i++) {
+			fwd[i][0] = pi[i]*b[i][sequence[0]];
+			sum+=fwd[i][0];
 		}
-		
-		for(int i=0; i<scaled.length; i++) {
-			scaled[i][0] = help[i][0] / sum0;
+		sf[0] = 1/sum;
+		for(int i=0; i<numStates; i++) {
+			fwd[i][0]*=sf[0];
 		}
 		
-		// calculate scaling factor
-		sf[0] = 1/sum0;
-		
-		// **************** INDUCTION ***************
-		// end of fixed t = 0
-		// starting with t>1 to sequence.length
 		// induction, further calculations
-		for(int t=1; t<sequence.length; t++) {
-			// calculate help
-			for(int i=0; i<help.length; i++) {
-				for(int j=0; j<this.numStates; j++) {
-					help[i][t]+=scaled[j][t-1]*a[j][i]*b[i][sequence[t]];
+		for(int t=1; t<T; t++) {
+			int o = sequence[t];
+			sum = 0;
+			for(int i=0; i<numStates; i++) {
+				double help = 0;
+				for(int j=band.colStart[i]; j<band.colEnd[i]; j++) {
+					help+=fwd[j][t-1]*a[j][i];
 				}
+				fwd[i][t] = help*b[i][o];
+				sum+=fwd[i][t];
 			}
-			
-			double sum = 0;
-			for(int i=0; i<help.length; i++) {
-				sum+=help[i][t];
-			}
-			
-			for(int i=0; i<scaled.length; i++) {
-				scaled[i][t] = help[i][t] / sum;
-			}
-
-			// calculate scaling factor
-			sf[t] = 1 / sum;
-			
-		} // t
-		
-		return sf;
-	}  // calculateScalingFactor
-
-	/***
-	 * Returns the scaled Forward variable.
-	 * TODO: Maybe try out if the other precalculated method is faster.
-	 * @param sequence
-	 * @return
-	 */
-	private double[][] scaledForwardProc(int[] sequence) {
-		double[][] fwd = this.forwardProc(sequence);
-		double[][] out = new double[fwd.length][fwd[0].length];
-		for(int i=0; i<fwd.length; i++) {
-			for(int t=0; t<sequence.length; t++) {
-				double sum = 0;
-				for(int j=0; j<fwd.length; j++) {
-					sum+=fwd[j][t];
-				}
-				out[i][t] = fwd[i][t] / sum;
+			sf[t] = 1/sum;
+			for(int i=0; i<numStates; i++) {
+				fwd[i][t]*=sf[t];
 			}
 		}
-		return out;
+		return fwd;
 	}
 	
+	/**
+	 * Returns the scaled Backward variable. Each step is scaled with
+	 * the scaling factor of the forward algorithm for the following
+	 * time step, so bwd[i][t] is the backward variable multiplied with
+	 * sf[t+1]*...*sf[T-1]. The product of the scaled forward and
+	 * backward variable then is the probability to be in state i at
+	 * time t, given the whole sequence.
+	 * 
+	 * @param sequence observation sequence
+	 * @param sf scaling factors of the forward algorithm
+	 * @return Array[State][Time]
+	 */
 	private double[][] scaledBackwardProc(int[] sequence, double[] sf) {
-		double[][] bwd = this.backwardProc(sequence);
-		double[][] out = new double[bwd.length][bwd[0].length];
-		for(int i=0; i<bwd.length; i++) {
-			for(int t=0; t<sequence.length; t++) {
-				out[i][t]=1;
-				for(int r=t+1; r<sequence.length; r++) {
-					out[i][t]*=sf[r]*bwd[i][t];
+		int T = sequence.length;
+		double[][] bwd = new double[numStates][T];
+		for(int i=0; i<numStates; i++) {
+			bwd[i][T-1] = 1;
+		}
+		for(int t=T-2; t>=0; t--) {
+			int o = sequence[t+1];
+			for(int i=0; i<numStates; i++) {
+				double sum = 0;
+				for(int j=band.rowStart[i]; j<band.rowEnd[i]; j++) {
+					sum+=a[i][j]*b[j][o]*bwd[j][t+1];
 				}
+				bwd[i][t] = sum*sf[t+1];
 			}
 		}
-		return out;
+		return bwd;
 	}
 	
 	/**
@@ -304,38 +343,41 @@ public class PreciseHMM {
 		return prob;*/
 	}
 	
+	/**
+	 * Returns the probability of a observation sequence, calculated
+	 * from the scaling factors of the scaled forward algorithm.
+	 * 
+	 * @param o observation sequence
+	 * @return probability that sequence o belongs to this hmm
+	 */
 	public double sProbability(int[] o) {
-		double prod = 1.0;
-		double[][] fwd = this.scaledForwardProc(o);
+		double[] sf = new double[o.length];
+		this.scaledForwardProc(o, sf);
+		double lp = 0;
 		for(int t=0; t<o.length; t++) {
-			double sum = 0.0;
-			for(int i=0; i<this.numStates; i++) {
-				sum+=fwd[i][t];
-			}
-			sum = 1/sum;
-			prod*=sum;
+			lp-=Math.log(sf[t]);
 		}
-		return 1/prod;
+		return Math.exp(lp);
 	}
 	
 	public double scaledViterbi(int[] o) {
 		double[][] phi = new double[this.numStates][o.length]; //phi[states][oseq]
 		// init
 		for(int i=0; i<this.numStates; i++) {
-			phi[i][0] = Math.log(pi[i]) + Math.log(b[i][o[0]]);
+			phi[i][0] = logpi[i] + logb[i][o[0]];
 		}
 		// induction
 		for(int t=1; t<o.length; t++) {
 			for(int j=0; j<this.numStates; j++) {
 				double max = Double.NEGATIVE_INFINITY;
-				for(int i=0; i<this.numStates; i++) {
-					double val = phi[i][t-1] + Math.log(this.a[i][j]);
+				for(int i=band.colStart[j]; i<band.colEnd[j]; i++) {
+					double val = phi[i][t-1] + loga[i][j];
 					if(val>max) {
 						max = val;
 					}
 				}			
 				
-				phi[j][t] = max + Math.log(this.b[j][o[t]]);
+				phi[j][t] = max + logb[j][o[t]];
 			}
 		}
 		// conclusion
@@ -355,54 +397,41 @@ public class PreciseHMM {
 	}
 	
 	/**
-	 * Traditional Forward Algorithm.
-	 * 
-	 * @param o the observationsequence O
-	 * @return Array[State][Time] 
-	 * 
+	 * Recalculates the logarithms of pi, a and b used by the
+	 * viterbi algorithm, so it only needs additions and comparisons.
 	 */
-	private double[][] forwardProc(int[] o) {
-		double[][] f = new double[numStates][o.length];
-		for (int l = 0; l < f.length; l++) {
-			f[l][0] = pi[l] * b[l][o[0]];
+	public void updateLogTables() {
+		if(this.logpi==null || this.logpi.length!=pi.length) {
+			this.logpi = new double[pi.length];
 		}
-		for (int i = 1; i < o.length; i++) {
-			for (int k = 0; k < f.length; k++) {
-				double sum = 0;
-				for (int l = 0; l < numStates; l++) {
-					sum += f[l][i-1] * a[l][k];
-				}
-				f[k][i] = sum * b[k][o[i]];
-			}
+		for(int i=0; i<pi.length; i++) {
+			this.logpi[i] = Math.log(pi[i]);
 		}
-		return f;
+		this.loga = log(this.a, this.loga);
+		this.logb = log(this.b, this.logb);
 	}
-
+	
 	/**
-	 * Backward algorithm.
+	 * Returns the element-wise natural logarithm of a matrix. The
+	 * target matrix is reused if it has the right size.
 	 * 
-	 * @param o observation sequence o
-	 * @return Array[State][Time]
+	 * @param m the matrix
+	 * @param target matrix for the result or null
+	 * @return the logarithms
 	 */
-	private double[][] backwardProc(int[] o) {
-		int T = o.length;
-		double[][] bwd = new double[numStates][T];
-		/* Basisfall */
-		for (int i = 0; i < numStates; i++)
-			bwd[i][T - 1] = 1;
-		/* Induktion */
-		for (int t = T - 2; t >= 0; t--) {
-			for (int i = 0; i < numStates; i++) {
-				bwd[i][t] = 0;
-				for (int j = 0; j < numStates; j++)
-					bwd[i][t] += (bwd[j][t + 1] * a[i][j] * b[j][o[t + 1]]);
+	private static double[][] log(double[][] m, double[][] target) {
+		if(target==null || target.length!=m.length || 
+				(m.length>0 && target[0].length!=m[0].length)) {
+			target = new double[m.length][m.length>0 ? m[0].length : 0];
+		}
+		for(int i=0; i<m.length; i++) {
+			for(int j=0; j<m[i].length; j++) {
+				target[i][j] = Math.log(m[i][j]);
 			}
 		}
-		return bwd;
+		return target;
 	}
-
 	
-
 	/** 
 	 * Prints everything about this model, including
 	 * all values. For debug purposes or if you want
@@ -437,6 +466,8 @@ public class PreciseHMM {
 	
 	public void setA(double[][] a) {
 		this.a = a;
+		this.band = new TransitionBand(a);
+		this.loga = log(a, this.loga);
 	}
 	
 	public double[][] getB() {
@@ -445,5 +476,6 @@ public class PreciseHMM {
 	
 	public void setB(double[][] b) {
 		this.b=b;
+		this.logb = log(b, this.logb);
 	}
 }
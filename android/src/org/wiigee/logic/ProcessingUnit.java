@@ -2,7 +2,9 @@ package org.wiigee.logic;
 
 import java.util.Vector;
 
+import org.wiigee.device.Device;
 import org.wiigee.event.AccelerationEvent;
+import org.wiigee.event.AccelerationSampleListener;
 import org.wiigee.event.ButtonPressedEvent;
 import org.wiigee.event.ButtonReleasedEvent;
 import org.wiigee.event.AccelerationListener;
@@ -13,7 +15,8 @@ import org.wiigee.event.MotionStartEvent;
 import org.wiigee.event.MotionStopEvent;
 import org.wiigee.util.Log;
 
-public abstract class ProcessingUnit implements AccelerationListener, ButtonListener {
+public abstract class ProcessingUnit implements AccelerationListener,
+        AccelerationSampleListener, ButtonListener {
 
     // Classifier
     protected Classifier classifier;
@@ -44,6 +47,16 @@ public abstract class ProcessingUnit implements AccelerationListener, ButtonList
 
     public abstract void accelerationReceived(AccelerationEvent event);
 
+    /**
+     * Receives the accelerations of the device as primitive values.
+     * Processing units should override this to avoid the event object,
+     * by default the event is created and passed to accelerationReceived.
+     */
+    public void accelerationSampleReceived(Device source, double x, double y,
+            double z, double absvalue, long timestamp) {
+        this.accelerationReceived(new AccelerationEvent(source, x, y, z, absvalue));
+    }
+
     public abstract void buttonPressReceived(ButtonPressedEvent event);
 
     public abstract void buttonReleaseReceived(ButtonReleasedEvent event);
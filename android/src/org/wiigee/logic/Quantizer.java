@@ -24,8 +24,8 @@
 
 package org.wiigee.logic;
 
+import java.util.Random;
 import java.util.Vector;
-import org.wiigee.event.AccelerationEvent;
 import org.wiigee.util.Log;
 
 /**
@@ -34,6 +34,8 @@ import org.wiigee.util.Log;
  * are ordered as two intersected circles, representing an abstract globe with
  * k=14 elements. As a special feature the radius of this globe would be
  * calculated dynamically before the training of this component.
+ * Alternatively the initial values can be drawn from the training data
+ * with the k-means++ method.
  * 
  * @author Benjamin 'BePo' Poppinga
  */
@@ -51,6 +53,37 @@ public class Quantizer {
 	/** True, if map is already trained. */
 	private boolean maptrained;
 
+	/** Sum of the vectors assigned to each centeroid and their number,
+	 * kept from the training to update the map with new gestures */
+	private double[][] sums;
+	private int[] counts;
+
+	/** Maximum number of k-mean iterations, 0 for no limit */
+	private int maxiterations;
+
+	/** The k-mean stops if no centeroid moves further than this */
+	private double tolerance;
+
+	/** True, if the initial centeroids are chosen by k-means++ */
+	private boolean plusplus;
+
+	/** Random numbers for the k-means++ initialization */
+	private Random random;
+
+	/** Lookup grid over the range of the training data: the symbol of
+	 * every cell, or -1 if more than one centeroid can be the nearest
+	 * in this cell. null, if it has to be built before the next lookup. */
+	private byte[] grid;
+
+	/** Number of grid cells per axis, 0 disables the grid */
+	private int gridcells;
+
+	/** Range of the grid in x, y and z direction and the inverted
+	 * size of a cell */
+	private double[] gridmin;
+	private double[] gridmax;
+	private double[] gridscale;
+
 	/**
 	 * Initialize a empty quantizer. The states variable is necessary since some
 	 * algorithms need this value to calculate their values correctly.
@@ -62,6 +95,57 @@ public class Quantizer {
 		this.numStates = numStates;
 		this.map = new double[14][3];
 		this.maptrained = false;
+		this.maxiterations = 0;
+		this.tolerance = 0.0;
+		this.plusplus = false;
+		this.random = new Random();
+		this.gridcells = 32;
+	}
+
+	/**
+	 * Trains the centeroids with all vectors of a set of gestures. They
+	 * are summarized in one virtual gesture, whose maximum and minimum
+	 * acceleration are the averages of the gestures.
+	 * 
+	 * @param gestures
+	 *            the training gestures
+	 */
+	public void trainCenteroids(Vector<Gesture> gestures) {
+		// summarize all vectors from the different gestures in one
+		// gesture called sum.
+		double maxacc = 0;
+		double minacc = 0;
+		Gesture sum = new Gesture();
+
+		for (int i = 0; i < gestures.size(); i++) {
+			// add the max and min acceleration, we later get the average
+			maxacc += gestures.elementAt(i).getMaxAcceleration();
+			minacc += gestures.elementAt(i).getMinAcceleration();
+
+			// transfer every single acceleration of each gesture to
+			// the new gesture sum
+			sum.addAll(gestures.elementAt(i));
+		}
+
+		// get the average and set it to the sum gesture
+		sum.setMaxAndMinAcceleration(maxacc / gestures.size(), minacc
+				/ gestures.size());
+
+		// train the centeroids with this master gesture sum.
+		this.trainCenteroids(sum);
+	}
+
+	/**
+	 * Forgets the trained centeroids, so the next training starts
+	 * from the initial values again.
+	 */
+	public void reset() {
+		this.maptrained = false;
+		this.sums = null;
+		this.counts = null;
+		this.grid = null;
+		this.gridmin = null;
+		this.gridmax = null;
 	}
 
 	/**
@@ -74,14 +158,20 @@ public class Quantizer {
 	 *            the summarized virtual gesture
 	 */
 	public void trainCenteroids(Gesture gesture) {
-		Vector<AccelerationEvent> data = gesture.getData();
 		double pi = Math.PI;
 		this.radius = (gesture.getMaxAcceleration() + gesture
 				.getMinAcceleration()) / 2;
 		Log.write("Using radius: " + this.radius);
+		this.grid = null;
+		this.gridmin = null;
+		this.gridmax = null;
+		this.extendGridRange(gesture);
 
 		// x , z , y
-		if (!this.maptrained) {
+		if (!this.maptrained && this.plusplus && gesture.getCountOfData() > 0) {
+			this.maptrained = true;
+			this.seedPlusPlus(gesture);
+		} else if (!this.maptrained) {
 			this.maptrained = true;
 			this.map[0] = new double[] { this.radius, 0.0, 0.0 };
 			this.map[1] = new double[] { Math.cos(pi / 4) * this.radius, 0.0,
@@ -111,105 +201,340 @@ public class Quantizer {
 					Math.sin(pi * 7 / 4) * this.radius };
 		}
 
-		int[][] g_alt = new int[this.map.length][data.size()];
-		int[][] g = new int[this.map.length][data.size()];
+		// index of the centeroid each vector belongs to, -1 for none yet
+		int[] assignment = new int[gesture.getCountOfData()];
+		for (int j = 0; j < assignment.length; j++) {
+			assignment[j] = -1;
+		}
+		this.sums = new double[this.map.length][3];
+		this.counts = new int[this.map.length];
 
+		boolean changed;
+		double moved; // largest squared distance a centeroid moved
+		int iterations = 0;
 		do {
 			// Derive new Groups...
-			g_alt = this.copyarray(g);
-			g = this.deriveGroups(gesture);
+			changed = this.assign(gesture, assignment);
+			moved = 0;
+			iterations++;
 
 			// calculate new centeroids
 			for (int i = 0; i < this.map.length; i++) {
-				double zaehlerX = 0;
-				double zaehlerY = 0;
-				double zaehlerZ = 0;
-				int nenner = 0;
-				for (int j = 0; j < data.size(); j++) {
-					if (g[i][j] == 1) {
-						zaehlerX += data.elementAt(j).getX();
-						zaehlerY += data.elementAt(j).getY();
-						zaehlerZ += data.elementAt(j).getZ();
-						nenner++;
-					}
-				}
+				this.sums[i][0] = 0;
+				this.sums[i][1] = 0;
+				this.sums[i][2] = 0;
+				this.counts[i] = 0;
+			}
+			for (int j = 0; j < assignment.length; j++) {
+				double[] sum = this.sums[assignment[j]];
+				sum[0] += gesture.getX(j);
+				sum[1] += gesture.getY(j);
+				sum[2] += gesture.getZ(j);
+				this.counts[assignment[j]]++;
+			}
+			for (int i = 0; i < this.map.length; i++) {
+				int nenner = this.counts[i];
 				if (nenner > 1) { // nur wenn der nenner>0 oder >1??? ist muss
 									// was
 					// geaendert werden
 					// Log.write("Setze neuen Centeroid!");
-					this.map[i] = new double[] {(zaehlerX / (double) nenner),
-												(zaehlerY / (double) nenner),
-												(zaehlerZ / (double) nenner) };
+					double[] centeroid = new double[] {(this.sums[i][0] / (double) nenner),
+												(this.sums[i][1] / (double) nenner),
+												(this.sums[i][2] / (double) nenner) };
+					double dx = centeroid[0] - this.map[i][0];
+					double dy = centeroid[1] - this.map[i][1];
+					double dz = centeroid[2] - this.map[i][2];
+					moved = Math.max(moved, dx * dx + dy * dy + dz * dz);
+					this.map[i] = centeroid;
 					// Log.write("Centeroid: "+i+": "+newcenteroid[0]+":"+newcenteroid[1]);
 				}
 			} // new centeroids
 
-		} while (!equalarrays(g_alt, g));
+		} while (changed
+				&& !(this.tolerance > 0 && moved <= this.tolerance * this.tolerance)
+				&& !(this.maxiterations > 0 && iterations >= this.maxiterations));
 
-		// Debug: Printout groups
-		/*
-		 * for (int i = 0; i < n; i++) { for (int j = 0; j < this.data.size();
-		 * j++) { Log.write(g[i][j] + "|"); } Log.write(""); }
-		 */
+	}
 
+	/**
+	 * Chooses the initial centeroids with the k-means++ method: the first
+	 * one is a random vector of the training data, every further one is a
+	 * vector chosen with a probability proportional to its squared distance
+	 * to the nearest centeroid chosen so far.
+	 * 
+	 * @param gesture
+	 *            the training vectors
+	 */
+	private void seedPlusPlus(Gesture gesture) {
+		int n = gesture.getCountOfData();
+		double[] d = new double[n];
+		int first = this.random.nextInt(n);
+		this.map[0] = new double[] { gesture.getX(first), gesture.getY(first),
+				gesture.getZ(first) };
+		for (int j = 0; j < n; j++) {
+			d[j] = Double.MAX_VALUE;
+		}
+		for (int i = 1; i < this.map.length; i++) {
+			// squared distance to the nearest centeroid so far
+			double total = 0;
+			for (int j = 0; j < n; j++) {
+				double dx = this.map[i - 1][0] - gesture.getX(j);
+				double dy = this.map[i - 1][1] - gesture.getY(j);
+				double dz = this.map[i - 1][2] - gesture.getZ(j);
+				d[j] = Math.min(d[j], dx * dx + dy * dy + dz * dz);
+				total += d[j];
+			}
+			int chosen = n - 1;
+			if (total > 0) {
+				double r = this.random.nextDouble() * total;
+				for (int j = 0; j < n; j++) {
+					r -= d[j];
+					if (r < 0) {
+						chosen = j;
+						break;
+					}
+				}
+			} else { // all vectors are centeroids already
+				chosen = this.random.nextInt(n);
+			}
+			this.map[i] = new double[] { gesture.getX(chosen), gesture.getY(chosen),
+					gesture.getZ(chosen) };
+		}
 	}
 
 	/**
-	 * This methods looks up a Gesture to a group matrix, used by the
+	 * Assigns every vector to its nearest centeroid, used by the
 	 * k-mean-algorithm (traincenteroid method) above.
 	 * 
 	 * @param gesture
+	 *            the vectors
+	 * @param assignment
+	 *            index of the centeroid of each vector, updated in place
+	 * @return true, if at least one vector changed its centeroid
+	 */
+	private boolean assign(Gesture gesture, int[] assignment) {
+		boolean changed = false;
+		for (int j = 0; j < assignment.length; j++) {
+			int nearest = this.nearest(gesture.getX(j), gesture.getY(j),
+					gesture.getZ(j));
+			if (nearest != assignment[j]) {
+				assignment[j] = nearest;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Adapts the trained centeroids to an additional gesture without
+	 * repeating the whole training. Every vector of the gesture is added
+	 * to the sum of its nearest centeroid and the centeroids are moved to
+	 * the new mean, so the cost only depends on the size of this gesture.
+	 * 
+	 * @param gesture
+	 *            the additional gesture
+	 * @return false, if the map hasn't been trained by this quantizer and
+	 *         so there are no sums to update
+	 */
+	public boolean update(Gesture gesture) {
+		if (this.sums == null) {
+			return false;
+		}
+		for (int j = 0; j < gesture.getCountOfData(); j++) {
+			double x = gesture.getX(j);
+			double y = gesture.getY(j);
+			double z = gesture.getZ(j);
+			int nearest = this.getObservation(x, y, z);
+			this.sums[nearest][0] += x;
+			this.sums[nearest][1] += y;
+			this.sums[nearest][2] += z;
+			this.counts[nearest]++;
+		}
+		this.grid = null;
+		this.extendGridRange(gesture);
+		for (int i = 0; i < this.map.length; i++) {
+			if (this.counts[i] > 1) { // same rule as in trainCenteroids
+				this.map[i] = new double[] {
+						this.sums[i][0] / (double) this.counts[i],
+						this.sums[i][1] / (double) this.counts[i],
+						this.sums[i][2] / (double) this.counts[i] };
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * True, if the centeroid sums of the training are available and
+	 * update() can be used.
+	 */
+	public boolean isUpdatable() {
+		return this.sums != null;
+	}
+
+	/**
+	 * This methods looks up a Gesture to a group matrix: groups[i][j] is 1
+	 * if the j-th vector belongs to the i-th centeroid. The k-mean-algorithm
+	 * doesn't need the matrix anymore, it's kept for compatibility.
+	 * 
+	 * @param gesture
 	 *            the gesture
 	 */
 	public int[][] deriveGroups(Gesture gesture) {
-		Vector<AccelerationEvent> data = gesture.getData();
-		int[][] groups = new int[this.map.length][data.size()];
-
-		// Calculate cartesian distance
-		double[][] d = new double[this.map.length][data.size()];
-		double[] curr = new double[3];
-		double[] vector = new double[3];
-		for (int i = 0; i < this.map.length; i++) { // zeilen
-			double[] ref = this.map[i];
-			for (int j = 0; j < data.size(); j++) { // spalten
-
-				curr[0] = data.elementAt(j).getX();
-				curr[1] = data.elementAt(j).getY();
-				curr[2] = data.elementAt(j).getZ();
-
-				vector[0] = ref[0] - curr[0];
-				vector[1] = ref[1] - curr[1];
-				vector[2] = ref[2] - curr[2];
-				d[i][j] = Math.sqrt((vector[0] * vector[0])
-						+ (vector[1] * vector[1]) + (vector[2] * vector[2]));
-				// Log.write(d[i][j] + "|");
-			}
-			// Log.write("");
+		int[][] groups = new int[this.map.length][gesture.getCountOfData()];
+		for (int j = 0; j < gesture.getCountOfData(); j++) {
+			groups[this.getObservation(gesture.getX(j), gesture.getY(j),
+					gesture.getZ(j))][j] = 1;
 		}
+		return groups;
+	}
 
-		// look, to which group a value belongs
-		for (int j = 0; j < data.size(); j++) {
-			double smallest = Double.MAX_VALUE;
-			int row = 0;
-			for (int i = 0; i < this.map.length; i++) {
-				if (d[i][j] < smallest) {
-					smallest = d[i][j];
-					row = i;
+	/**
+	 * Returns the symbol of a single acceleration vector, which is the
+	 * index of the nearest centeroid. Used to quantize a gesture while
+	 * it's recorded. Inside the range of the training data the symbol
+	 * is looked up in the grid, only vectors in cells near the border
+	 * of two centeroids or outside the range are compared with every
+	 * centeroid. Both ways return the same symbol.
+	 * 
+	 * @param x
+	 *            acceleration in x direction
+	 * @param y
+	 *            acceleration in y direction
+	 * @param z
+	 *            acceleration in z direction
+	 * @return the symbol between 0 and the number of centeroids
+	 */
+	public int getObservation(double x, double y, double z) {
+		if (this.gridcells > 0 && this.gridmin != null
+				&& this.map.length <= Byte.MAX_VALUE) {
+			if (this.grid == null) {
+				this.buildGrid();
+			}
+			int n = this.gridcells;
+			double fx = (x - this.gridmin[0]) * this.gridscale[0];
+			double fy = (y - this.gridmin[1]) * this.gridscale[1];
+			double fz = (z - this.gridmin[2]) * this.gridscale[2];
+			// written negated, so NaN values take the exact way
+			if (!(fx < 0 || fy < 0 || fz < 0 || fx >= n || fy >= n || fz >= n || fx != fx
+					|| fy != fy || fz != fz)) {
+				int symbol = this.grid[((int) fx * n + (int) fy) * n + (int) fz];
+				if (symbol >= 0) {
+					return symbol;
 				}
-				groups[i][j] = 0;
 			}
-			groups[row][j] = 1; // guppe gesetzt
 		}
+		return this.nearest(x, y, z);
+	}
 
-		// Debug output
-		/*
-		 * for (int i = 0; i < groups.length; i++) { // zeilen for (int j = 0; j
-		 * < groups[i].length; j++) { Log.write(groups[i][j] + "|"); }
-		 * Log.write(""); }
-		 */
+	/**
+	 * Compares a vector with every centeroid and returns the index of
+	 * the nearest one.
+	 */
+	private int nearest(double x, double y, double z) {
+		int nearest = 0;
+		double smallest = Double.MAX_VALUE;
+		for (int i = 0; i < this.map.length; i++) {
+			double dx = this.map[i][0] - x;
+			double dy = this.map[i][1] - y;
+			double dz = this.map[i][2] - z;
+			double d = dx * dx + dy * dy + dz * dz;
+			if (d < smallest) {
+				smallest = d;
+				nearest = i;
+			}
+		}
+		return nearest;
+	}
 
-		return groups;
+	/**
+	 * Extends the range of the lookup grid, so it covers the given vectors.
+	 */
+	private void extendGridRange(Gesture gesture) {
+		if (gesture.getCountOfData() > 0) {
+			this.extendGridRange(gesture.getMinimum(Gesture.X),
+					gesture.getMinimum(Gesture.Y), gesture.getMinimum(Gesture.Z));
+			this.extendGridRange(gesture.getMaximum(Gesture.X),
+					gesture.getMaximum(Gesture.Y), gesture.getMaximum(Gesture.Z));
+		}
+	}
+
+	private void extendGridRange(double x, double y, double z) {
+		if (this.gridmin == null) {
+			this.gridmin = new double[] { x, y, z };
+			this.gridmax = new double[] { x, y, z };
+			return;
+		}
+		this.gridmin[0] = Math.min(this.gridmin[0], x);
+		this.gridmin[1] = Math.min(this.gridmin[1], y);
+		this.gridmin[2] = Math.min(this.gridmin[2], z);
+		this.gridmax[0] = Math.max(this.gridmax[0], x);
+		this.gridmax[1] = Math.max(this.gridmax[1], y);
+		this.gridmax[2] = Math.max(this.gridmax[2], z);
+	}
+
+	/**
+	 * Builds the lookup grid for the current centeroids. A cell gets a
+	 * symbol only if the nearest centeroid of its center is nearer than
+	 * every other centeroid by more than the diagonal of the cell. Then,
+	 * by the triangle inequality, it's the nearest centeroid for every
+	 * vector inside the cell.
+	 */
+	private void buildGrid() {
+		int n = this.gridcells;
+		double[] size = new double[3];
+		this.gridscale = new double[3];
+		for (int a = 0; a < 3; a++) {
+			size[a] = Math.max(this.gridmax[a] - this.gridmin[a], 1e-6) / n;
+			this.gridscale[a] = 1.0 / size[a];
+		}
+		double diagonal = Math.sqrt(size[0] * size[0] + size[1] * size[1]
+				+ size[2] * size[2]);
+		this.grid = new byte[n * n * n];
+		for (int ix = 0; ix < n; ix++) {
+			double x = this.gridmin[0] + (ix + 0.5) * size[0];
+			for (int iy = 0; iy < n; iy++) {
+				double y = this.gridmin[1] + (iy + 0.5) * size[1];
+				for (int iz = 0; iz < n; iz++) {
+					double z = this.gridmin[2] + (iz + 0.5) * size[2];
+					double first = Double.MAX_VALUE;
+					double second = Double.MAX_VALUE;
+					int symbol = 0;
+					for (int i = 0; i < this.map.length; i++) {
+						double dx = this.map[i][0] - x;
+						double dy = this.map[i][1] - y;
+						double dz = this.map[i][2] - z;
+						double d = Math.sqrt(dx * dx + dy * dy + dz * dz);
+						if (d < first) {
+							second = first;
+							first = d;
+							symbol = i;
+						} else if (d < second) {
+							second = d;
+						}
+					}
+					this.grid[(ix * n + iy) * n + iz] = (byte) (second - first > diagonal ? symbol
+							: -1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Defines the resolution of the lookup grid used by getObservation.
+	 * The grid has cells^3 entries of one byte and is built on the first
+	 * lookup after the centeroids have changed.
+	 * 
+	 * @param cells
+	 *            number of cells per axis, 0 to compare every vector with
+	 *            all centeroids
+	 */
+	public void setLookupGrid(int cells) {
+		this.gridcells = Math.max(0, cells);
+		this.grid = null;
+	}
 
+	public int getLookupGrid() {
+		return this.gridcells;
 	}
 
 	/**
@@ -220,19 +545,27 @@ public class Quantizer {
 	 *            Gesture to get the observationsequence to.
 	 */
 	public int[] getObservationSequence(Gesture gesture) {
-		int[][] groups = this.deriveGroups(gesture);
-		Vector<Integer> sequence = new Vector<Integer>();
-
-		// Log.write("Visible symbol sequence: ");
+		int[] out = new int[this.getSequenceLength(gesture)];
+		this.getObservationSequence(gesture, out);
+		return out;
+	}
 
-		for (int j = 0; j < groups[0].length; j++) { // spalten
-			for (int i = 0; i < groups.length; i++) { // zeilen
-				if (groups[i][j] == 1) {
-					// Log.write(" "+ i);
-					sequence.add(i);
-					break;
-				}
-			}
+	/**
+	 * Writes the discrete symbol sequence of a gesture into a buffer, so
+	 * no new array is needed for every gesture.
+	 * 
+	 * @param gesture
+	 *            Gesture to get the observationsequence to.
+	 * @param buffer
+	 *            receives the symbols, at least getSequenceLength(gesture)
+	 *            long
+	 * @return the length of the sequence
+	 */
+	public int getObservationSequence(Gesture gesture, int[] buffer) {
+		int n = gesture.getCountOfData();
+		for (int j = 0; j < n; j++) {
+			buffer[j] = this.getObservation(gesture.getX(j), gesture.getY(j),
+					gesture.getZ(j));
 		}
 
 		// die sequenz darf nicht zu kurz sein... mindestens so lang
@@ -240,19 +573,22 @@ public class Quantizer {
 		// english: this is very dirty! it have to be here because if not
 		// too short sequences would cause an error. i've to think about a
 		// better resolution than copying the old value a few time.
-		while (sequence.size() < this.numStates) {
-			sequence.add(sequence.elementAt(sequence.size() - 1));
-			// Log.write(" "+sequence.elementAt(sequence.size()-1));
-		}
-
-		// Log.write("");
-
-		int[] out = new int[sequence.size()];
-		for (int i = 0; i < sequence.size(); i++) {
-			out[i] = sequence.elementAt(i);
+		int length = this.getSequenceLength(gesture);
+		for (int j = n; j < length; j++) {
+			buffer[j] = buffer[n - 1];
 		}
+		return length;
+	}
 
-		return out;
+	/**
+	 * Returns the length of the symbol sequence of a gesture, which is
+	 * at least the number of states.
+	 * 
+	 * @param gesture
+	 *            the gesture
+	 */
+	public int getSequenceLength(Gesture gesture) {
+		return Math.max(gesture.getCountOfData(), this.numStates);
 	}
 
 	/**
@@ -267,43 +603,96 @@ public class Quantizer {
 		}
 	}
 
+	public double getRadius() {
+		return this.radius;
+	}
+
 	/**
-	 * Function to deepcopy an array.
+	 * Returns the centeroids. Don't change them, the lookup grid wouldn't
+	 * notice; use setUpManually instead.
 	 */
-	private int[][] copyarray(int[][] alt) {
-		int[][] neu = new int[alt.length][alt[0].length];
-		for (int i = 0; i < alt.length; i++) {
-			for (int j = 0; j < alt[i].length; j++) {
-				neu[i][j] = alt[i][j];
-			}
-		}
-		return neu;
+	public double[][] getHashMap() {
+		return this.map;
 	}
 
 	/**
-	 * Function to look if the two arrays containing the same values.
+	 * Limits the number of k-mean iterations of trainCenteroids.
+	 * 
+	 * @param maxiterations
+	 *            maximum number of iterations, 0 for no limit
 	 */
-	private boolean equalarrays(int[][] one, int[][] two) {
-		for (int i = 0; i < one.length; i++) {
-			for (int j = 0; j < one[i].length; j++) {
-				if (!(one[i][j] == two[i][j])) {
-					return false;
-				}
-			}
-		}
-		return true;
+	public void setMaxIterations(int maxiterations) {
+		this.maxiterations = maxiterations;
 	}
 
-	public double getRadius() {
-		return this.radius;
+	public int getMaxIterations() {
+		return this.maxiterations;
 	}
 
-	public double[][] getHashMap() {
-		return this.map;
+	/**
+	 * Stops the k-mean as soon as no centeroid moves further than the
+	 * given distance in one iteration.
+	 * 
+	 * @param tolerance
+	 *            distance in the units of the acceleration, 0 to wait
+	 *            until no vector changes its centeroid
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public double getTolerance() {
+		return this.tolerance;
+	}
+
+	/**
+	 * Chooses the initial centeroids of an untrained quantizer from the
+	 * training data with k-means++ instead of the two circles.
+	 * 
+	 * @param plusplus
+	 *            true to use k-means++
+	 */
+	public void setPlusPlusSeeding(boolean plusplus) {
+		this.plusplus = plusplus;
+	}
+
+	public boolean isPlusPlusSeeding() {
+		return this.plusplus;
+	}
+
+	/**
+	 * Sets the seed of the random numbers used by k-means++, so the
+	 * training can be repeated with the same result.
+	 * 
+	 * @param seed
+	 *            the seed
+	 */
+	public void setRandomSeed(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * True, if the centeroids have been trained or set up manually.
+	 */
+	public boolean isTrained() {
+		return this.maptrained;
 	}
 
 	public void setUpManually(double[][] map, double radius) {
 		this.map = map;
 		this.radius = radius;
+		this.maptrained = true;
+		this.sums = null;
+		this.counts = null;
+		// without training data the grid covers the centeroids
+		this.grid = null;
+		this.gridmin = null;
+		this.gridmax = null;
+		for (int i = 0; i < map.length; i++) {
+			this.extendGridRange(map[i][0] - radius, map[i][1] - radius,
+					map[i][2] - radius);
+			this.extendGridRange(map[i][0] + radius, map[i][1] + radius,
+					map[i][2] + radius);
+		}
 	}
 }
@@ -0,0 +1,105 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.logic;
+
+import java.util.Vector;
+import org.wiigee.util.Log;
+
+/**
+ * Progress of an iterative training of a Hidden Markov Model. For every
+ * re-estimation step the log-likelihood of the training sequences under
+ * the model going into this step and the time the step took are recorded,
+ * so training latency can be compared with the gained model quality.
+ */
+public class TrainingReport {
+
+	/** The log-likelihood of the training sequences per iteration */
+	private Vector<Double> loglikelihood;
+
+	/** The time each iteration took, in milliseconds */
+	private Vector<Double> time;
+
+	/** True, if the training stopped because the gain dropped below epsilon */
+	private boolean converged;
+
+	public TrainingReport() {
+		this.loglikelihood = new Vector<Double>();
+		this.time = new Vector<Double>();
+		this.converged = false;
+	}
+
+	/**
+	 * Records a finished re-estimation step.
+	 *
+	 * @param loglikelihood log-likelihood of the training sequences
+	 * @param millis time the step took
+	 */
+	public void addIteration(double loglikelihood, double millis) {
+		this.loglikelihood.add(loglikelihood);
+		this.time.add(millis);
+	}
+
+	public int getIterations() {
+		return this.loglikelihood.size();
+	}
+
+	public double getLogLikelihood(int iteration) {
+		return this.loglikelihood.elementAt(iteration);
+	}
+
+	public double getTime(int iteration) {
+		return this.time.elementAt(iteration);
+	}
+
+	/**
+	 * Returns the time spent in all iterations.
+	 *
+	 * @return time in milliseconds
+	 */
+	public double getTotalTime() {
+		double sum = 0;
+		for(int i=0; i<this.time.size(); i++) {
+			sum+=this.time.elementAt(i);
+		}
+		return sum;
+	}
+
+	public boolean isConverged() {
+		return this.converged;
+	}
+
+	public void setConverged(boolean converged) {
+		this.converged = converged;
+	}
+
+	/**
+	 * Prints the likelihood and time of every iteration.
+	 * For debug purposes or tuning the training parameters.
+	 */
+	public void print() {
+		for(int i=0; i<this.loglikelihood.size(); i++) {
+			Log.write("Iteration "+i+": log-likelihood = "+this.loglikelihood.elementAt(i)+
+					", time = "+this.time.elementAt(i)+" ms");
+		}
+		Log.write((this.converged ? "Converged" : "Stopped")+" after "+
+				this.loglikelihood.size()+" iterations ("+this.getTotalTime()+" ms)");
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.logic;
+
+/**
+ * The band of non-zero state change probabilities of a transition matrix.
+ * In the left-to-right model a state can only jump a few states ahead, so
+ * every row and column of a[stateA][stateB] has only a short range of
+ * values different from 0. The recursions only iterate over this range,
+ * which makes a step O(numStates*band) instead of O(numStates^2).
+ * Since the training never turns a 0 into something else, the band
+ * found for the initial model stays valid. A dense matrix simply results
+ * in a band covering every state.
+ */
+class TransitionBand {
+
+	/** First and behind-last target state with a[state][target]!=0 */
+	int[] rowStart;
+	int[] rowEnd;
+
+	/** First and behind-last source state with a[source][state]!=0 */
+	int[] colStart;
+	int[] colEnd;
+
+	/**
+	 * Finds the band of the given transition matrix.
+	 *
+	 * @param a state change probabilities: a[stateA][stateB]
+	 */
+	TransitionBand(double[][] a) {
+		int n = a.length;
+		this.rowStart = new int[n];
+		this.rowEnd = new int[n];
+		this.colStart = new int[n];
+		this.colEnd = new int[n];
+		for(int i=0; i<n; i++) {
+			this.colStart[i] = n;
+		}
+		for(int i=0; i<n; i++) {
+			this.rowStart[i] = n;
+			for(int j=0; j<n; j++) {
+				if(a[i][j]!=0.0) {
+					if(j<this.rowStart[i]) {
+						this.rowStart[i] = j;
+					}
+					this.rowEnd[i] = j+1;
+					if(i<this.colStart[j]) {
+						this.colStart[j] = i;
+					}
+					this.colEnd[j] = i+1;
+				}
+			}
+		}
+		// empty rows and columns
+		for(int i=0; i<n; i++) {
+			if(this.rowStart[i]>this.rowEnd[i]) {
+				this.rowStart[i] = this.rowEnd[i];
+			}
+			if(this.colStart[i]>this.colEnd[i]) {
+				this.colStart[i] = this.colEnd[i];
+			}
+		}
+	}
+}
@@ -25,6 +25,7 @@
 package org.wiigee.logic;
 
 import java.util.Vector;
+import org.wiigee.device.Device;
 import org.wiigee.event.*;
 import org.wiigee.util.Log;
 
@@ -45,12 +46,27 @@ public class TriggeredProcessingUnit extends ProcessingUnit {
 	// State variables
 	private boolean learning, analyzing;
 	
+	// streaming recognition, one stream per gesture model
+	private boolean streaming;
+	private ForwardStream[] streams;
+	private int streamlength;
+	
+	// models using the shared codebook and their training gestures,
+	// the codebook is trained with the gestures of all of them
+	private Vector<GestureModel> sharedmodels;
+	private Vector<Vector<Gesture>> sharedgestures;
+	
 	public TriggeredProcessingUnit() {
 		super();
 		this.learning=false;
 		this.analyzing=false;
+		this.streaming=false;
+		this.streams=new ForwardStream[0];
+		this.streamlength=0;
 		this.current=new Gesture();
 		this.trainsequence=new Vector<Gesture>();
+		this.sharedmodels=new Vector<GestureModel>();
+		this.sharedgestures=new Vector<Vector<Gesture>>();
 	}
 
 	/** 
@@ -62,10 +78,42 @@ public class TriggeredProcessingUnit extends ProcessingUnit {
 	 * @param event The acceleration event which has to be processed by the
 	 * directional equivalence filter and which has to be added to the current
 	 * motion in recognition or training process.
+	 * In streaming mode a gesture to recognize isn't stored, each
+	 * event directly advances the forward variables of every model.
 	 */
 	public void accelerationReceived(AccelerationEvent event) {
-		if(this.learning || this.analyzing) {
-			this.current.add(event); // add event to gesture			
+		this.accelerationSampleReceived((Device)event.getSource(), event.getX(),
+				event.getY(), event.getZ(), event.getAbsValue(), System.nanoTime());
+	}
+
+	/**
+	 * Same as accelerationReceived, but the device passes the values
+	 * directly, so no object is created for a sample.
+	 */
+	@Override
+	public void accelerationSampleReceived(Device source, double x, double y,
+			double z, double absvalue, long timestamp) {
+		if(this.analyzing && this.streaming) {
+			// a shared codebook quantizes the sample once for all its models
+			Quantizer codebook = this.classifier.getSharedQuantizer();
+			int symbol = -1;
+			if(codebook!=null && codebook.isTrained()) {
+				symbol = codebook.getObservation(x, y, z);
+			}
+			for(int i=0; i<this.streams.length; i++) {
+				GestureModel m = this.classifier.getGestureModel(i);
+				if(symbol>=0 && m.getQuantizer()==codebook) {
+					this.streams[i].add(symbol);
+				} else {
+					m.stream(this.streams[i], x, y, z);
+				}
+			}
+			this.streamlength++;
+		} else if(this.learning || this.analyzing) {
+			if(this.current.getSource()==null) {
+				this.current.setSource(source);
+			}
+			this.current.add(x, y, z, absvalue, timestamp); // add sample to gesture
 		}		
 	}
 
@@ -103,6 +151,9 @@ public class TriggeredProcessingUnit extends ProcessingUnit {
 		if((!this.analyzing && !this.learning) && 
 			event.isRecognitionInitEvent()) {
 			Log.write("Recognition started!");
+			if(this.streaming) {
+				this.startStreams();
+			}
 			this.analyzing=true;
 		}
 			
@@ -115,10 +166,15 @@ public class TriggeredProcessingUnit extends ProcessingUnit {
 				Log.write("Training the model with "+this.trainsequence.size()+" gestures...");
 				this.learning=true;
 				
-				GestureModel m = new GestureModel();
-				m.train(this.trainsequence);
-				m.print();
-				this.classifier.addGestureModel(m);
+				if(this.classifier.getSharedQuantizer()!=null) {
+					this.trainSharedModels(this.trainsequence);
+				} else {
+					GestureModel m = new GestureModel();
+					m.setLogScoring(true);
+					m.train(this.trainsequence);
+					m.print();
+					this.classifier.addGestureModel(m);
+				}
 				
 				this.trainsequence=new Vector<Gesture>();
 				this.learning=false;
@@ -128,6 +184,49 @@ public class TriggeredProcessingUnit extends ProcessingUnit {
 		}
 	}
 	
+	/**
+	 * Adds a gesture class to the models using the shared codebook. The
+	 * codebook is trained again with the gestures of all these classes,
+	 * so every such model is replaced by a new one trained with the new
+	 * symbols.
+	 * 
+	 * @param trainsequence the training gestures of the new class
+	 */
+	private void trainSharedModels(Vector<Gesture> trainsequence) {
+		Vector<GestureModel> models = this.classifier.getGestureModels();
+		
+		// forget models which have been removed, e.g. by reset()
+		for(int i=this.sharedmodels.size()-1; i>=0; i--) {
+			if(!models.contains(this.sharedmodels.elementAt(i))) {
+				this.sharedmodels.remove(i);
+				this.sharedgestures.remove(i);
+			}
+		}
+		this.sharedmodels.add(null);
+		this.sharedgestures.add(trainsequence);
+		
+		Vector<Gesture> all = new Vector<Gesture>();
+		for(int i=0; i<this.sharedgestures.size(); i++) {
+			all.addAll(this.sharedgestures.elementAt(i));
+		}
+		this.classifier.trainSharedQuantizer(all);
+		
+		Quantizer codebook = this.classifier.getSharedQuantizer();
+		for(int i=0; i<this.sharedmodels.size(); i++) {
+			GestureModel m = new GestureModel(codebook);
+			m.setLogScoring(true);
+			m.train(this.sharedgestures.elementAt(i));
+			GestureModel old = this.sharedmodels.elementAt(i);
+			if(old==null) {
+				m.print();
+				this.classifier.addGestureModel(m);
+			} else {
+				models.set(models.indexOf(old), m);
+			}
+			this.sharedmodels.set(i, m);
+		}
+	}
+	
 	public void handleStopEvent(ActionStopEvent event) {
 		if(this.learning) { // button release and state=learning, stops learning
 			if(this.current.getCountOfData()>0) {
@@ -144,25 +243,29 @@ public class TriggeredProcessingUnit extends ProcessingUnit {
 			}
 		}
 		
+		else if(this.analyzing && this.streaming) {
+			this.analyzing=false;
+			if(this.streamlength>0) {
+				Log.write("Finished recording (recognition)...");
+				Log.write("Compare gesture with "+this.classifier.getCountOfGestures()+" other gestures.");
+				double[] loglikelihood = new double[this.streams.length];
+				for(int i=0; i<this.streams.length; i++) {
+					loglikelihood[i] = this.classifier.getGestureModel(i).matchesLog(this.streams[i]);
+				}
+				this.fireRecognitionResult(this.classifier.classifyLogLikelihoods(loglikelihood));
+			} else {
+				Log.write("There is no data.");
+				Log.write("Please recognize the gesture again.");
+			}
+		}
+		
 		else if(this.analyzing) { // button release and state=analyzing, stops analyzing
 			if(this.current.getCountOfData()>0) {
 				Log.write("Finished recording (recognition)...");
 				Log.write("Compare gesture with "+this.classifier.getCountOfGestures()+" other gestures.");
 				Gesture gesture = new Gesture(this.current);
 				
-				int recognized = this.classifier.classifyGesture(gesture);
-				if(recognized!=-1) {
-					double recogprob = this.classifier.getLastProbability();
-					this.fireGestureEvent(true, recognized, recogprob);
-					Log.write("######");
-					Log.write("Gesture No. "+recognized+" recognized: "+recogprob);
-					Log.write("######");
-				} else {
-					this.fireGestureEvent(false, 0, 0.0);
-					Log.write("######");
-					Log.write("No gesture recognized.");
-					Log.write("######");
-				}
+				this.fireRecognitionResult(this.classifier.classifyGesture(gesture));
 				
 				this.current=new Gesture();
 				this.analyzing=false;
@@ -174,6 +277,102 @@ public class TriggeredProcessingUnit extends ProcessingUnit {
 		}
 	}
 
+	/**
+	 * Fires the gesture event for the result of a classification.
+	 * 
+	 * @param recognized the id of the recognized gesture or -1
+	 */
+	private void fireRecognitionResult(int recognized) {
+		if(recognized!=-1) {
+			double recogprob = this.classifier.getLastProbability();
+			this.fireGestureEvent(true, recognized, recogprob);
+			Log.write("######");
+			Log.write("Gesture No. "+recognized+" recognized: "+recogprob);
+			Log.write("######");
+		} else {
+			this.fireGestureEvent(false, 0, 0.0);
+			Log.write("######");
+			Log.write("No gesture recognized.");
+			Log.write("######");
+		}
+	}
+	
+	/**
+	 * Resets the forward variables of every gesture model for a new
+	 * gesture. The streams are recreated if models were added or
+	 * replaced since the last recognition.
+	 */
+	private void startStreams() {
+		int count = this.classifier.getCountOfGestures();
+		boolean stale = this.streams.length!=count;
+		for(int i=0; i<count && !stale; i++) {
+			stale = this.streams[i].getHMM()!=this.classifier.getGestureModel(i).getHMM();
+		}
+		if(stale) {
+			this.streams = new ForwardStream[count];
+			for(int i=0; i<count; i++) {
+				this.streams[i] = this.classifier.getGestureModel(i).createForwardStream();
+			}
+		} else {
+			for(int i=0; i<count; i++) {
+				this.streams[i].reset();
+			}
+		}
+		this.streamlength=0;
+	}
+	
+	/**
+	 * Turns the streaming recognition on or off. While streaming, each
+	 * acceleration of a gesture to recognize is quantized and scored
+	 * by every gesture model as soon as it arrives, so the result is
+	 * available right after the gesture ended. Training gestures are
+	 * recorded as usual. The models mustn't be changed during a
+	 * recognition.
+	 * 
+	 * @param streaming true to score gestures while they are recorded
+	 */
+	public void setStreaming(boolean streaming) {
+		if(!this.analyzing) {
+			this.streaming=streaming;
+		}
+	}
+	
+	public boolean isStreaming() {
+		return this.streaming;
+	}
+	
+	/**
+	 * Folds the recorded training gestures into an existing gesture
+	 * model instead of training a new one. Only the new gestures are
+	 * processed, the model keeps what it learned before.
+	 * 
+	 * @param id the id of the gesture model to extend
+	 */
+	public void updateGesture(int id) {
+		if(this.analyzing || this.learning) {
+			return;
+		}
+		if(this.trainsequence.size()>0) {
+			Log.write("Updating model "+id+" with "+this.trainsequence.size()+" gestures...");
+			GestureModel m = this.classifier.getGestureModel(id);
+			int shared = this.sharedmodels.indexOf(m);
+			int updated = 0;
+			for(int i=0; i<this.trainsequence.size(); i++) {
+				if(m.update(this.trainsequence.elementAt(i))) {
+					updated++;
+					// keep it for training the codebook again
+					if(shared>=0) {
+						this.sharedgestures.elementAt(shared).add(this.trainsequence.elementAt(i));
+					}
+				}
+			}
+			Log.write("Model "+id+" updated with "+updated+" of "+this.trainsequence.size()+" gestures.");
+			this.trainsequence=new Vector<Gesture>();
+		} else {
+			Log.write("There is nothing to do. Please record some gestures first.");
+		}
+	}
+
 	@Override
 	public void loadGesture(String filename) {
 		GestureModel g = org.wiigee.util.FileIO.readFromFile(filename);
@@ -122,6 +122,16 @@ public class FileIO {
 				}
 			}
 			
+			out.write("# defaultLogProbability:");
+			out.newLine();
+			out.write(Double.toString(m.getDefaultLogProbability()));
+			out.newLine();
+			
+			out.write("# logScoring:");
+			out.newLine();
+			out.write(Boolean.toString(m.isLogScoring()));
+			out.newLine();
+			
 			out.write("# END");
 			
 			// close file
@@ -140,6 +150,8 @@ public class FileIO {
 			int numStates = 0;
 			int numObservations = 0;
 			double defaultprobability = 0;
+			double defaultlogprobability = Double.NaN; // not in older files
+			boolean logscoring = false;
 			double radius = 0;
 			double[][] map = new double[numObservations][3];
 			double[] pi = new double[numStates];
@@ -202,6 +214,12 @@ public class FileIO {
 							line = in.ready() ? in.readLine() : "";
 						}
 						break;
+					case 8:
+						defaultlogprobability = Double.parseDouble(line);
+						break;
+					case 9:
+						logscoring = Boolean.parseBoolean(line);
+						break;
 					default:
 						System.out.println("SWITCH EMPTY!");
 						break;
@@ -211,6 +229,10 @@ public class FileIO {
 			
 			GestureModel ret = new GestureModel();
 			ret.setDefaultProbability(defaultprobability);
+			if(!Double.isNaN(defaultlogprobability)) {
+				ret.setDefaultLogProbability(defaultlogprobability);
+			}
+			ret.setLogScoring(logscoring);
 			
 			Quantizer quantizer = new Quantizer(numStates);
 			quantizer.setUpManually(map, radius);
@@ -0,0 +1,77 @@
+/*
+ * wiigee - accelerometerbased gesture recognition
+ *
+ * This file is part of wiigee.
+ *
+ * wiigee is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.wiigee.util;
+
+/**
+ * Static helpers to calculate with probabilities in the log domain.
+ * Long observation sequences produce probabilities too small for a
+ * double, their logarithms stay in range. A probability of 0 is
+ * represented by Double.NEGATIVE_INFINITY.
+ */
+public class LogMath {
+
+	/**
+	 * Returns log(exp(x) + exp(y)) without leaving the log domain.
+	 *
+	 * @param x a log probability
+	 * @param y a log probability
+	 * @return log of the sum of both probabilities
+	 */
+	public static double add(double x, double y) {
+		if(x==Double.NEGATIVE_INFINITY) {
+			return y;
+		}
+		if(y==Double.NEGATIVE_INFINITY) {
+			return x;
+		}
+		if(x>y) {
+			return x + Math.log1p(Math.exp(y - x));
+		} else {
+			return y + Math.log1p(Math.exp(x - y));
+		}
+	}
+
+	/**
+	 * Returns log(exp(v[0]) + ... + exp(v[length-1])), the log-sum-exp
+	 * of the first length values. The largest value is factored out
+	 * so none of the exponentials underflows completely.
+	 *
+	 * @param v log probabilities
+	 * @param length number of values to sum
+	 * @return log of the sum of the probabilities
+	 */
+	public static double sum(double[] v, int length) {
+		double max = Double.NEGATIVE_INFINITY;
+		for(int i=0; i<length; i++) {
+			if(v[i]>max) {
+				max = v[i];
+			}
+		}
+		if(Double.isInfinite(max)) {
+			return max;
+		}
+		double sum = 0;
+		for(int i=0; i<length; i++) {
+			sum+=Math.exp(v[i] - max);
+		}
+		return max + Math.log(sum);
+	}
+}